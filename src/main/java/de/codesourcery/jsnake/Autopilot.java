@@ -0,0 +1,17 @@
+package de.codesourcery.jsnake;
+
+/**
+ * Steers the snake instead of a human player.
+ */
+public interface Autopilot
+{
+    /**
+     * Picks the direction for the snake's next movement.
+     *
+     * Gets invoked right before the simulation tick that moves the snake.
+     *
+     * @param game current game state, must not be modified
+     * @return direction to move in or <code>null</code> to keep the current direction
+     */
+    Direction nextDirection(Game game);
+}
@@ -0,0 +1,438 @@
+package de.codesourcery.jsnake;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs many independent games in lockstep, for training agents.
+ *
+ * All state is kept in flat primitive arrays (one slot/slice per game) instead of one {@link Game} object
+ * per game. Unlike {@link Game}, every {@link #stepAll(int[])} call moves each snake by exactly one cell,
+ * the frame-based timing of the interactive game is not simulated. The game rules are the same:
+ * walls and the snake's own body kill, eating all {@link Game#APPLES_PER_LEVEL} apples of a level places new
+ * apples and increases the level.
+ *
+ * A game that ends is immediately reset, {@link #dones()} tells which games ended during the last step.
+ *
+ * Stepping and exporting observations do not allocate any memory.
+ */
+public class BatchEnvironment
+{
+    /** Action meaning 'keep current direction'. All other actions are {@link Direction#ordinal()} values. */
+    public static final int NO_ACTION = -1;
+
+    public static final byte CELL_EMPTY = 0;
+    public static final byte CELL_BODY = 1;
+    public static final byte CELL_HEAD = 2;
+    public static final byte CELL_APPLE = 3;
+
+    public static final float REWARD_APPLE = 1f;
+    public static final float REWARD_DEATH = -1f;
+
+    // min. number of games per parallel task
+    private static final int MIN_GAMES_PER_TASK = 256;
+
+    private static final int NO_APPLE = -1;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    public final int gameCount;
+    public final int gridX;
+    public final int gridY;
+
+    private final int cells;
+    private final int bitsetWords;
+
+    // snake bodies as ring buffers of cell indices (y * gridX + x), 'cells' slots per game
+    private final int[] body;
+    private final int[] headSlot;
+    private final int[] tailSlot;
+    private final int[] length;
+    private final byte[] direction;
+
+    // one bit per cell, set if occupied by the snake, 'bitsetWords' longs per game
+    private final long[] occupied;
+
+    // apple cell indices or NO_APPLE, APPLES_PER_LEVEL slots per game
+    private final int[] apples;
+    private final int[] applesLeft;
+    private final int[] applesEaten;
+    private final int[] level;
+
+    private final long[] rngState;
+
+    private final float[] rewards;
+    private final boolean[] dones;
+
+    private final ForkJoinPool pool;
+    private final StepTask rootTask;
+
+    // actions of the step currently being executed
+    private int[] currentActions;
+
+    public BatchEnvironment(int gameCount, int gridX, int gridY, long seed)
+    {
+        this( gameCount, gridX, gridY, seed, ForkJoinPool.commonPool() );
+    }
+
+    public BatchEnvironment(int gameCount, int gridX, int gridY, long seed, ForkJoinPool pool)
+    {
+        if ( gameCount < 1 ) {
+            throw new IllegalArgumentException( "Game count must be >= 1" );
+        }
+        if ( gridX < 6 || gridY < 6 ) {
+            throw new IllegalArgumentException( "Grid needs to be at least 6x6 but was " + gridX + "x" + gridY );
+        }
+        this.gameCount = gameCount;
+        this.gridX = gridX;
+        this.gridY = gridY;
+        this.cells = gridX * gridY;
+        this.bitsetWords = (cells + 63) >>> 6;
+        this.pool = pool;
+
+        body = new int[gameCount * cells];
+        headSlot = new int[gameCount];
+        tailSlot = new int[gameCount];
+        length = new int[gameCount];
+        direction = new byte[gameCount];
+        occupied = new long[gameCount * bitsetWords];
+        apples = new int[gameCount * Game.APPLES_PER_LEVEL];
+        applesLeft = new int[gameCount];
+        applesEaten = new int[gameCount];
+        level = new int[gameCount];
+        rngState = new long[gameCount];
+        rewards = new float[gameCount];
+        dones = new boolean[gameCount];
+
+        long s = seed;
+        for ( int i = 0; i < gameCount; i++ ) {
+            s += 0x9e3779b97f4a7c15L;
+            rngState[i] = s;
+            reset( i );
+        }
+
+        final int taskCount = Math.max( 1, Math.min( pool.getParallelism() * 4, gameCount / MIN_GAMES_PER_TASK ) );
+        final StepTask[] tasks = new StepTask[taskCount];
+        for ( int i = 0; i < taskCount; i++ ) {
+            tasks[i] = new StepTask( (int) ((long) gameCount * i / taskCount), (int) ((long) gameCount * (i + 1) / taskCount) );
+        }
+        rootTask = new StepTask( tasks );
+    }
+
+    /**
+     * Moves every snake by one cell.
+     *
+     * @param actions one action per game, either {@link #NO_ACTION} or a {@link Direction#ordinal()}.
+     *                Reversing the snake's direction is ignored, just like in the interactive game.
+     */
+    public void stepAll(int[] actions)
+    {
+        if ( actions.length < gameCount ) {
+            throw new IllegalArgumentException( "Need " + gameCount + " actions but got " + actions.length );
+        }
+        currentActions = actions;
+        try
+        {
+            if ( rootTask.subTasks.length == 1 )
+            {
+                stepRange( 0, gameCount );
+            }
+            else
+            {
+                rootTask.reinitialize();
+                pool.invoke( rootTask );
+            }
+        }
+        finally {
+            currentActions = null;
+        }
+    }
+
+    /**
+     * Writes one {@link #gridX} * {@link #gridY} grid per game, using the <code>CELL_XXX</code> constants.
+     *
+     * Game <code>i</code> starts at offset <code>i * gridX * gridY</code>, cells are stored row by row.
+     *
+     * @param out buffer to write to, needs to hold at least <code>gameCount * gridX * gridY</code> bytes
+     */
+    public void writeObservations(byte[] out)
+    {
+        if ( out.length < gameCount * cells ) {
+            throw new IllegalArgumentException( "Buffer too small, need " + (gameCount * cells) + " bytes" );
+        }
+        Arrays.fill( out, 0, gameCount * cells, CELL_EMPTY );
+        for ( int game = 0; game < gameCount; game++ )
+        {
+            final int offset = game * cells;
+            final int appleOffset = game * Game.APPLES_PER_LEVEL;
+            for ( int i = 0; i < Game.APPLES_PER_LEVEL; i++ )
+            {
+                final int apple = apples[appleOffset + i];
+                if ( apple != NO_APPLE ) {
+                    out[offset + apple] = CELL_APPLE;
+                }
+            }
+            for ( int i = 0, slot = tailSlot[game], len = length[game]; i < len; i++ )
+            {
+                out[offset + body[offset + slot]] = CELL_BODY;
+                if ( ++slot == cells ) {
+                    slot = 0;
+                }
+            }
+            out[offset + body[offset + headSlot[game]]] = CELL_HEAD;
+        }
+    }
+
+    /**
+     * Returns the rewards of the last step (shared array, overwritten by the next step).
+     *
+     * @return rewards, one per game
+     */
+    public float[] rewards()
+    {
+        return rewards;
+    }
+
+    /**
+     * Returns which games ended (and got reset) during the last step (shared array, overwritten by the next step).
+     *
+     * @return flags, one per game
+     */
+    public boolean[] dones()
+    {
+        return dones;
+    }
+
+    public int headX(int game)
+    {
+        return body[game * cells + headSlot[game]] % gridX;
+    }
+
+    public int headY(int game)
+    {
+        return body[game * cells + headSlot[game]] / gridX;
+    }
+
+    public int length(int game)
+    {
+        return length[game];
+    }
+
+    public Direction direction(int game)
+    {
+        return DIRECTIONS[direction[game]];
+    }
+
+    public int level(int game)
+    {
+        return level[game];
+    }
+
+    public int applesEaten(int game)
+    {
+        return applesEaten[game];
+    }
+
+    private void stepRange(int start, int end)
+    {
+        final int[] actions = currentActions;
+        for ( int game = start; game < end; game++ ) {
+            step( game, actions[game] );
+        }
+    }
+
+    private void step(int game, int action)
+    {
+        final int offset = game * cells;
+
+        rewards[game] = 0;
+        dones[game] = false;
+
+        // prevent impossible direction changes
+        if ( action != NO_ACTION && DIRECTIONS[action] != DIRECTIONS[direction[game]].reversed() ) {
+            direction[game] = (byte) action;
+        }
+        final Direction dir = DIRECTIONS[direction[game]];
+
+        final int head = body[offset + headSlot[game]];
+        final int newX = head % gridX + dir.dx;
+        final int newY = head / gridX + dir.dy;
+
+        // check collisions
+        if ( newX < 0 || newY < 0 || newX >= gridX || newY >= gridY )
+        {
+            die( game );
+            return;
+        }
+        final int newHead = newY * gridX + newX;
+        final boolean hitMyself = isOccupied( game, newHead );
+
+        int slot = headSlot[game] + 1;
+        headSlot[game] = slot == cells ? 0 : slot;
+        body[offset + headSlot[game]] = newHead;
+        length[game]++;
+        setOccupied( game, newHead );
+
+        if ( hitMyself )
+        {
+            die( game );
+            return;
+        }
+
+        if ( removeApple( game, newHead ) )
+        {
+            rewards[game] = REWARD_APPLE;
+            applesEaten[game]++;
+            if ( --applesLeft[game] == 0 )
+            {
+                if ( length[game] + Game.APPLES_PER_LEVEL > cells )
+                {
+                    // board is (almost) full, nowhere left to place apples
+                    dones[game] = true;
+                    reset( game );
+                    return;
+                }
+                placeApples( game );
+                level[game]++;
+            }
+        }
+        else
+        {
+            final int tail = body[offset + tailSlot[game]];
+            clearOccupied( game, tail );
+            slot = tailSlot[game] + 1;
+            tailSlot[game] = slot == cells ? 0 : slot;
+            length[game]--;
+        }
+    }
+
+    private void die(int game)
+    {
+        rewards[game] = REWARD_DEATH;
+        dones[game] = true;
+        reset( game );
+    }
+
+    private boolean removeApple(int game, int cell)
+    {
+        final int appleOffset = game * Game.APPLES_PER_LEVEL;
+        for ( int i = 0; i < Game.APPLES_PER_LEVEL; i++ )
+        {
+            if ( apples[appleOffset + i] == cell ) {
+                apples[appleOffset + i] = NO_APPLE;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isApple(int game, int cell)
+    {
+        final int appleOffset = game * Game.APPLES_PER_LEVEL;
+        for ( int i = 0; i < Game.APPLES_PER_LEVEL; i++ )
+        {
+            if ( apples[appleOffset + i] == cell ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void placeApples(int game)
+    {
+        final int appleOffset = game * Game.APPLES_PER_LEVEL;
+        Arrays.fill( apples, appleOffset, appleOffset + Game.APPLES_PER_LEVEL, NO_APPLE );
+        int count = 0;
+        while ( count < Game.APPLES_PER_LEVEL )
+        {
+            final int cell = nextInt( game, cells );
+            if ( ! isOccupied( game, cell ) && ! isApple( game, cell ) ) {
+                apples[appleOffset + count++] = cell;
+            }
+        }
+        applesLeft[game] = Game.APPLES_PER_LEVEL;
+    }
+
+    private void reset(int game)
+    {
+        final int offset = game * cells;
+        Arrays.fill( occupied, game * bitsetWords, (game + 1) * bitsetWords, 0 );
+        length[game] = 0;
+        level[game] = 1;
+        applesEaten[game] = 0;
+
+        // place snake before the apples, apples can always be placed around it
+        direction[game] = (byte) Direction.UP.ordinal();
+        final int startX = 2 + nextInt( game, gridX - 5 );
+        final int startY = 2 + nextInt( game, gridY - 5 );
+        final int tail = startY * gridX + startX;
+        final int head = tail - 1;
+        body[offset] = tail;
+        body[offset + 1] = head;
+        tailSlot[game] = 0;
+        headSlot[game] = 1;
+        length[game] = 2;
+        setOccupied( game, tail );
+        setOccupied( game, head );
+
+        placeApples( game );
+    }
+
+    private boolean isOccupied(int game, int cell)
+    {
+        return (occupied[game * bitsetWords + (cell >>> 6)] & (1L << cell)) != 0;
+    }
+
+    private void setOccupied(int game, int cell)
+    {
+        occupied[game * bitsetWords + (cell >>> 6)] |= 1L << cell;
+    }
+
+    private void clearOccupied(int game, int cell)
+    {
+        occupied[game * bitsetWords + (cell >>> 6)] &= ~(1L << cell);
+    }
+
+    // SplitMix64
+    private int nextInt(int game, int bound)
+    {
+        long z = (rngState[game] += 0x9e3779b97f4a7c15L);
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        z = z ^ (z >>> 31);
+        return (int) (((z >>> 32) * bound) >>> 32);
+    }
+
+    private final class StepTask extends RecursiveAction
+    {
+        private final int start, end;
+        private final StepTask[] subTasks;
+
+        StepTask(int start, int end)
+        {
+            this.start = start;
+            this.end = end;
+            this.subTasks = null;
+        }
+
+        StepTask(StepTask[] subTasks)
+        {
+            this.start = this.end = 0;
+            this.subTasks = subTasks;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if ( subTasks == null ) {
+                stepRange( start, end );
+                return;
+            }
+            for ( StepTask task : subTasks ) {
+                task.reinitialize();
+            }
+            invokeAll( subTasks );
+        }
+    }
+}
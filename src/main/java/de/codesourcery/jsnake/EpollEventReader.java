@@ -0,0 +1,504 @@
+package de.codesourcery.jsnake;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+/**
+ * Reads input events from any number of evdev devices on a single thread, using
+ * the Foreign Function &amp; Memory API to call into libc directly.
+ *
+ * Devices are opened non-blocking and multiplexed with one <code>epoll</code> instance. An <code>eventfd</code>
+ * registered with the same <code>epoll</code> instance is used to wake up and terminate the reader thread
+ * cleanly. Events are read in batches into native memory and parsed from there.
+ *
+ * Any file descriptor delivering <code>struct input_event</code> records can be added via
+ * {@link #add(int)}, for example the read end of a pipe created by {@link #pipe()}. Writers
+ * must write whole records.
+ *
+ * Backs {@link GamepadEventReader} when using {@link GamepadEventReader.Backend#EPOLL}.
+ *
+ * Linux only.
+ */
+public class EpollEventReader implements AutoCloseable
+{
+    private static final int INPUT_EVENT_SIZE = 8 + 8 + 2 + 2 + 4;
+    private static final int EVENTS_PER_READ = 64;
+    private static final int MAX_EPOLL_EVENTS = 16;
+
+    // fcntl.h / sys/epoll.h / sys/eventfd.h (x86_64 and aarch64)
+    private static final int O_RDONLY = 0;
+    private static final int O_RDWR = 2;
+    private static final int O_NONBLOCK = 0x800;
+    private static final int O_CLOEXEC = 0x80000;
+    private static final int EPOLL_CTL_ADD = 1;
+    private static final int EPOLL_CTL_DEL = 2;
+    private static final int EPOLLIN = 0x1;
+    private static final int EPOLLERR = 0x8;
+    private static final int EPOLLHUP = 0x10;
+    private static final int EAGAIN = 11;
+    private static final int EINTR = 4;
+
+    // _IOW('E', 0x90, int)
+    private static final long EVIOCGRAB = 0x40044590L;
+
+    // struct epoll_event is packed on x86_64 only
+    private static final boolean PACKED_EPOLL_EVENT = "amd64".equals( System.getProperty( "os.arch" ) ) ||
+        "x86_64".equals( System.getProperty( "os.arch" ) );
+    private static final int EPOLL_EVENT_SIZE = PACKED_EPOLL_EVENT ? 12 : 16;
+    private static final int EPOLL_DATA_OFFSET = PACKED_EPOLL_EVENT ? 4 : 8;
+
+    private static final Linker LINKER = Linker.nativeLinker();
+    private static final MemoryLayout CAPTURE_LAYOUT = Linker.Option.captureStateLayout();
+    private static final VarHandle ERRNO = CAPTURE_LAYOUT.varHandle( MemoryLayout.PathElement.groupElement( "errno" ) );
+    private static final Linker.Option CAPTURE_ERRNO = Linker.Option.captureCallState( "errno" );
+
+    private static final MethodHandle OPEN = downcall( "open", FunctionDescriptor.of( JAVA_INT, ADDRESS, JAVA_INT ) );
+    private static final MethodHandle CLOSE = downcall( "close", FunctionDescriptor.of( JAVA_INT, JAVA_INT ) );
+    private static final MethodHandle READ = downcall( "read", FunctionDescriptor.of( JAVA_LONG, JAVA_INT, ADDRESS, JAVA_LONG ) );
+    private static final MethodHandle WRITE = downcall( "write", FunctionDescriptor.of( JAVA_LONG, JAVA_INT, ADDRESS, JAVA_LONG ) );
+    private static final MethodHandle PIPE2 = downcall( "pipe2", FunctionDescriptor.of( JAVA_INT, ADDRESS, JAVA_INT ) );
+    private static final MethodHandle IOCTL_INT = downcall( "ioctl", FunctionDescriptor.of( JAVA_INT, JAVA_INT, JAVA_LONG, JAVA_INT ),
+        Linker.Option.firstVariadicArg( 2 ) );
+    private static final MethodHandle EPOLL_CREATE1 = downcall( "epoll_create1", FunctionDescriptor.of( JAVA_INT, JAVA_INT ) );
+    private static final MethodHandle EPOLL_CTL = downcall( "epoll_ctl", FunctionDescriptor.of( JAVA_INT, JAVA_INT, JAVA_INT, JAVA_INT, ADDRESS ) );
+    private static final MethodHandle EPOLL_WAIT = downcall( "epoll_wait", FunctionDescriptor.of( JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT ) );
+    private static final MethodHandle EVENTFD = downcall( "eventfd", FunctionDescriptor.of( JAVA_INT, JAVA_INT, JAVA_INT ) );
+
+    /**
+     * Receives events read from devices, invoked on the reader thread.
+     */
+    public interface Listener
+    {
+        void onEvent(int fd, GamepadEventReader.InputEvent event);
+
+        /**
+         * A device has been removed because it was closed/unplugged or reading from it failed.
+         *
+         * @param fd file descriptor of the device (already closed)
+         * @param cause error or <code>null</code> if the device reported end-of-file
+         */
+        default void onDeviceRemoved(int fd, IOException cause) {
+        }
+    }
+
+    private final Arena arena = Arena.ofShared();
+    private final int epollFd;
+    private final int wakeupFd;
+    private final MemorySegment readBuffer;
+    private final ByteBuffer readBufferView;
+    private final MemorySegment epollEvents;
+    // errno capture segment of the reader thread, calls made on other threads use their own
+    private final MemorySegment readerErrno;
+
+    // fds being read, value tells whether the fd has been grabbed exclusively
+    private final Map<Integer, Boolean> devices = new ConcurrentHashMap<>();
+
+    private Thread thread;
+    private volatile boolean terminate;
+
+    public EpollEventReader() throws IOException
+    {
+        readBuffer = arena.allocate( (long) INPUT_EVENT_SIZE * EVENTS_PER_READ, 8 );
+        readBufferView = readBuffer.asByteBuffer().order( ByteOrder.LITTLE_ENDIAN );
+        epollEvents = arena.allocate( (long) EPOLL_EVENT_SIZE * MAX_EPOLL_EVENTS, 8 );
+        readerErrno = arena.allocate( CAPTURE_LAYOUT );
+
+        try ( Arena tmp = Arena.ofConfined() )
+        {
+            final MemorySegment errno = tmp.allocate( CAPTURE_LAYOUT );
+            epollFd = check( (int) invoke( EPOLL_CREATE1, errno, O_CLOEXEC ), errno, "epoll_create1()" );
+            wakeupFd = check( (int) invoke( EVENTFD, errno, 0, O_NONBLOCK | O_CLOEXEC ), errno, "eventfd()" );
+        }
+        register( wakeupFd );
+    }
+
+    /**
+     * Opens an evdev device and adds it to this reader.
+     *
+     * @param devicePath path of the device, e.g. <code>/dev/input/event3</code>
+     * @param grab whether to grab the device exclusively (EVIOCGRAB), so that
+     *             no other process (including the X server / Wayland compositor) receives its events
+     * @return file descriptor of the device
+     * @throws IOException
+     */
+    public int open(String devicePath, boolean grab) throws IOException
+    {
+        try ( Arena tmp = Arena.ofConfined() )
+        {
+            final MemorySegment errno = tmp.allocate( CAPTURE_LAYOUT );
+            final int fd = check( (int) invoke( OPEN, errno, tmp.allocateUtf8String( devicePath ), O_RDONLY | O_NONBLOCK | O_CLOEXEC ),
+                errno, "open(" + devicePath + ")" );
+            try
+            {
+                if ( grab ) {
+                    check( (int) invoke( IOCTL_INT, errno, fd, EVIOCGRAB, 1 ), errno, "ioctl(EVIOCGRAB)" );
+                }
+                add( fd, grab );
+            }
+            catch( IOException e )
+            {
+                closeFd( fd );
+                throw e;
+            }
+            return fd;
+        }
+    }
+
+    /**
+     * Adds an already opened, non-blocking file descriptor to this reader.
+     *
+     * The reader takes ownership of the file descriptor and closes it when done.
+     *
+     * @param fd
+     * @throws IOException
+     */
+    public void add(int fd) throws IOException
+    {
+        add( fd, false );
+    }
+
+    private void add(int fd, boolean grabbed) throws IOException
+    {
+        devices.put( fd, grabbed );
+        try
+        {
+            register( fd );
+        }
+        catch( IOException e )
+        {
+            devices.remove( fd );
+            throw e;
+        }
+    }
+
+    private void register(int fd) throws IOException
+    {
+        try ( Arena tmp = Arena.ofConfined() )
+        {
+            final MemorySegment errno = tmp.allocate( CAPTURE_LAYOUT );
+            final MemorySegment event = tmp.allocate( EPOLL_EVENT_SIZE, 8 );
+            event.set( ValueLayout.JAVA_INT_UNALIGNED, 0, EPOLLIN );
+            event.set( ValueLayout.JAVA_LONG_UNALIGNED, EPOLL_DATA_OFFSET, fd );
+            check( (int) invoke( EPOLL_CTL, errno, epollFd, EPOLL_CTL_ADD, fd, event ), errno, "epoll_ctl(ADD)" );
+        }
+    }
+
+    /**
+     * Starts the reader thread.
+     *
+     * @param listener listener to deliver events to
+     */
+    public synchronized void start(Listener listener)
+    {
+        if ( thread != null ) {
+            throw new IllegalStateException( "Already started" );
+        }
+        final Thread t = new Thread( () -> {
+            IOException error = null;
+            try
+            {
+                mainLoop( listener );
+            }
+            catch( IOException e )
+            {
+                error = e;
+                e.printStackTrace();
+            }
+            finally
+            {
+                for ( int fd : devices.keySet() )
+                {
+                    release( fd );
+                    devices.remove( fd );
+                    // devices are only removed silently when the reader got closed
+                    if ( error != null ) {
+                        listener.onDeviceRemoved( fd, error );
+                    }
+                }
+            }
+        }, "evdev-epoll-reader" );
+        t.setDaemon( true );
+        t.start();
+        thread = t;
+    }
+
+    private void mainLoop(Listener listener) throws IOException
+    {
+        while ( ! terminate )
+        {
+            final int ready = epollWait();
+            if ( ready < 0 )
+            {
+                if ( errno() == EINTR ) {
+                    continue;
+                }
+                throw new IOException( "epoll_wait() failed, errno " + errno() );
+            }
+            for ( int i = 0; i < ready; i++ )
+            {
+                final long offset = (long) i * EPOLL_EVENT_SIZE;
+                final int flags = epollEvents.get( ValueLayout.JAVA_INT_UNALIGNED, offset );
+                final int fd = (int) epollEvents.get( ValueLayout.JAVA_LONG_UNALIGNED, offset + EPOLL_DATA_OFFSET );
+                if ( fd == wakeupFd ) {
+                    return;
+                }
+                if ( (flags & (EPOLLIN | EPOLLERR | EPOLLHUP)) != 0 ) {
+                    drain( fd, listener );
+                }
+            }
+        }
+    }
+
+    // read until the fd would block
+    private void drain(int fd, Listener listener)
+    {
+        while ( true )
+        {
+            final long read = read( fd );
+            if ( read < 0 )
+            {
+                final int err = errno();
+                if ( err == EAGAIN ) {
+                    return;
+                }
+                if ( err == EINTR ) {
+                    continue;
+                }
+                remove( fd, listener, new IOException( "read() failed, errno " + err ) );
+                return;
+            }
+            if ( read == 0 )
+            {
+                remove( fd, listener, null );
+                return;
+            }
+            if ( read % INPUT_EVENT_SIZE != 0 )
+            {
+                remove( fd, listener, new IOException( "read() error: " + read + " bytes is not a multiple of " + INPUT_EVENT_SIZE ) );
+                return;
+            }
+            readBufferView.clear().limit( (int) read );
+            while ( readBufferView.hasRemaining() ) {
+                listener.onEvent( fd, GamepadEventReader.InputEvent.parse( readBufferView ) );
+            }
+            if ( read < readBuffer.byteSize() ) {
+                return;
+            }
+        }
+    }
+
+    private void remove(int fd, Listener listener, IOException cause)
+    {
+        if ( devices.containsKey( fd ) )
+        {
+            release( fd );
+            devices.remove( fd );
+            listener.onDeviceRemoved( fd, cause );
+        }
+    }
+
+    private void release(int fd)
+    {
+        // invoked on the reader thread or, if it never got started, by close()
+        try ( Arena tmp = Arena.ofConfined() )
+        {
+            final MemorySegment errno = tmp.allocate( CAPTURE_LAYOUT );
+            invoke( EPOLL_CTL, errno, epollFd, EPOLL_CTL_DEL, fd, tmp.allocate( EPOLL_EVENT_SIZE, 8 ) );
+            if ( Boolean.TRUE.equals( devices.get( fd ) ) ) {
+                invoke( IOCTL_INT, errno, fd, EVIOCGRAB, 0 );
+            }
+        }
+        closeFd( fd );
+    }
+
+    /**
+     * Stops the reader thread, closes all devices and releases native resources.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        final Thread t;
+        synchronized( this ) {
+            terminate = true;
+            t = thread;
+        }
+        if ( t != null )
+        {
+            try ( Arena tmp = Arena.ofConfined() )
+            {
+                final MemorySegment one = tmp.allocate( JAVA_LONG );
+                one.set( JAVA_LONG, 0, 1L );
+                write( wakeupFd, one );
+            }
+            try
+            {
+                t.join();
+            }
+            catch( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException( "Interrupted while waiting for reader thread", e );
+            }
+        }
+        else
+        {
+            devices.keySet().forEach( this::release );
+            devices.clear();
+        }
+        closeFd( wakeupFd );
+        closeFd( epollFd );
+        arena.close();
+    }
+
+    // hot paths use invokeExact(), invoke() boxes its arguments
+    private int epollWait()
+    {
+        try
+        {
+            return (int) EPOLL_WAIT.invokeExact( readerErrno, epollFd, epollEvents, MAX_EPOLL_EVENTS, -1 );
+        }
+        catch( Throwable t )
+        {
+            throw new RuntimeException( t );
+        }
+    }
+
+    private long read(int fd)
+    {
+        try
+        {
+            return (long) READ.invokeExact( readerErrno, fd, readBuffer, readBuffer.byteSize() );
+        }
+        catch( Throwable t )
+        {
+            throw new RuntimeException( t );
+        }
+    }
+
+    // errno of the last call on the reader thread
+    private int errno()
+    {
+        return (int) ERRNO.get( readerErrno );
+    }
+
+    private static int check(int result, MemorySegment errno, String what) throws IOException
+    {
+        if ( result < 0 ) {
+            throw new IOException( what + " failed, errno " + ERRNO.get( errno ) );
+        }
+        return result;
+    }
+
+    private static void closeFd(int fd)
+    {
+        try ( Arena tmp = Arena.ofConfined() )
+        {
+            invoke( CLOSE, tmp.allocate( CAPTURE_LAYOUT ), fd );
+        }
+    }
+
+    /**
+     * Creates a non-blocking pipe, whose read end can be passed to {@link #add(int)}.
+     *
+     * @return file descriptors, index 0 is the read end, index 1 is the write end
+     * @throws IOException
+     */
+    public static int[] pipe() throws IOException
+    {
+        try ( Arena tmp = Arena.ofConfined() )
+        {
+            final MemorySegment fds = tmp.allocateArray( JAVA_INT, 2 );
+            final MemorySegment err = tmp.allocate( CAPTURE_LAYOUT );
+            if ( (int) invoke( PIPE2, err, fds, O_NONBLOCK | O_CLOEXEC ) < 0 ) {
+                throw new IOException( "pipe2() failed, errno " + ERRNO.get( err ) );
+            }
+            return new int[] { fds.getAtIndex( JAVA_INT, 0 ), fds.getAtIndex( JAVA_INT, 1 ) };
+        }
+    }
+
+    /**
+     * Writes raw data to a file descriptor.
+     *
+     * @param fd
+     * @param data
+     * @throws IOException
+     */
+    public static void write(int fd, MemorySegment data) throws IOException
+    {
+        try ( Arena tmp = Arena.ofConfined() )
+        {
+            final MemorySegment err = tmp.allocate( CAPTURE_LAYOUT );
+            final long written = (long) invoke( WRITE, err, fd, data, data.byteSize() );
+            if ( written != data.byteSize() ) {
+                throw new IOException( "write() failed, errno " + ERRNO.get( err ) );
+            }
+        }
+    }
+
+    /**
+     * Closes a file descriptor not owned by a reader, e.g. the write end of a pipe.
+     *
+     * @param fd
+     */
+    public static void close(int fd)
+    {
+        closeFd( fd );
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        if ( args.length == 0 ) {
+            throw new IllegalArgumentException( "Usage: [--grab] <device path> [device path...]" );
+        }
+        final boolean grab = "--grab".equals( args[0] );
+        try ( EpollEventReader reader = new EpollEventReader() )
+        {
+            for ( int i = grab ? 1 : 0; i < args.length; i++ ) {
+                reader.open( args[i], grab );
+            }
+            reader.start( (fd, event) -> System.out.println( "GOT [" + fd + "]: " + event ) );
+            Thread.sleep( Long.MAX_VALUE );
+        }
+    }
+
+    private static MethodHandle downcall(String name, FunctionDescriptor descriptor, Linker.Option... extraOptions)
+    {
+        final MemorySegment symbol = LINKER.defaultLookup().find( name )
+            .orElseThrow( () -> new UnsatisfiedLinkError( "libc function not found: " + name ) );
+        final Linker.Option[] options = new Linker.Option[extraOptions.length + 1];
+        options[0] = CAPTURE_ERRNO;
+        System.arraycopy( extraOptions, 0, options, 1, extraOptions.length );
+        return LINKER.downcallHandle( symbol, descriptor, options );
+    }
+
+    // all handles take the errno capture segment as their first argument
+    private static Object invoke(MethodHandle handle, MemorySegment errno, Object... args)
+    {
+        final Object[] allArgs = new Object[args.length + 1];
+        allArgs[0] = errno;
+        System.arraycopy( args, 0, allArgs, 1, args.length );
+        try
+        {
+            return handle.invokeWithArguments( allArgs );
+        }
+        catch( Throwable t )
+        {
+            throw new RuntimeException( t );
+        }
+    }
+}
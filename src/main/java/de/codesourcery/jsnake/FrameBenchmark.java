@@ -0,0 +1,161 @@
+package de.codesourcery.jsnake;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Headless macro benchmark that measures complete frames (input draining, game tick and rendering)
+ * across a range of grid sizes, snake lengths and apple counts, for each render mode.
+ *
+ * Results are printed to stdout as CSV, one line per scenario. Framebuffer scenarios whose grid
+ * has more cells per side than the target has pixels are skipped, they would render more pixels than the output.
+ *
+ * Usage: <code>FrameBenchmark [frames per scenario] [warm-up frames] [width] [height]</code>
+ */
+public class FrameBenchmark
+{
+    private static final int[] GRID_SIZES = { 20, 100, 500, 2000 };
+    private static final int[] SNAKE_LENGTHS = { 2, 100, 10_000, 1_000_000 };
+    private static final int[] APPLE_COUNTS = { 10, 1000 };
+    private static final String[] MODES = { "java2d", "framebuffer" };
+
+    // upper bound for framebuffer pixels per cell, large grids get fewer so the framebuffer is never larger than the target
+    private static final int MAX_PIXELS_PER_CELL = 8;
+
+    private final int frames;
+    private final int warmupFrames;
+    private final int width;
+    private final int height;
+
+    private final com.sun.management.ThreadMXBean threadBean;
+
+    public record Result(String mode, int gridSize, int snakeLength, int appleCount, int frames,
+                         double fps, double p50Micros, double p99Micros, double p999Micros, double bytesPerFrame)
+    {
+        public static String csvHeader() {
+            return "mode,grid,snake_length,apples,frames,fps,p50_us,p99_us,p999_us,alloc_bytes_per_frame";
+        }
+
+        public String toCSV() {
+            return String.format( Locale.ROOT, "%s,%dx%d,%d,%d,%d,%.1f,%.1f,%.1f,%.1f,%.0f",
+                mode, gridSize, gridSize, snakeLength, appleCount, frames, fps, p50Micros, p99Micros, p999Micros, bytesPerFrame );
+        }
+    }
+
+    public FrameBenchmark(int frames, int warmupFrames, int width, int height)
+    {
+        this.frames = frames;
+        this.warmupFrames = warmupFrames;
+        this.width = width;
+        this.height = height;
+        this.threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threadBean.setThreadAllocatedMemoryEnabled( true );
+    }
+
+    public Result run(String mode, int gridSize, int snakeLength, int appleCount)
+    {
+        final Game game = new Game( gridSize, gridSize, appleCount, 0xdeadbeefL );
+        game.reset( snakeLength );
+
+        final Renderer renderer = createRenderer( mode, gridSize );
+
+        final long[] frameTimes = new long[frames];
+        long allocatedBytes = 0;
+        long totalNanos = 0;
+        int measured = 0;
+
+        try ( HeadlessGameLoop loop = new HeadlessGameLoop( width, height, 42 ) )
+        {
+            for ( int i = 0, total = warmupFrames + frames; i < total; i++ )
+            {
+                if ( game.isGameOver() ) {
+                    // not part of the measurement
+                    game.reset( snakeLength );
+                }
+
+                final long allocStart = threadBean.getCurrentThreadAllocatedBytes();
+                final long start = System.nanoTime();
+
+                loop.tick( game, renderer );
+
+                final long elapsed = System.nanoTime() - start;
+                final long allocated = threadBean.getCurrentThreadAllocatedBytes() - allocStart;
+                if ( i >= warmupFrames )
+                {
+                    frameTimes[measured++] = elapsed;
+                    totalNanos += elapsed;
+                    allocatedBytes += allocated;
+                }
+            }
+        }
+
+        Arrays.sort( frameTimes );
+        return new Result( mode, gridSize, snakeLength, appleCount, frames,
+            frames / (totalNanos / 1e9),
+            percentile( frameTimes, 0.5 ) / 1e3,
+            percentile( frameTimes, 0.99 ) / 1e3,
+            percentile( frameTimes, 0.999 ) / 1e3,
+            allocatedBytes / (double) frames );
+    }
+
+    private Renderer createRenderer(String mode, int gridSize)
+    {
+        return switch( mode )
+        {
+            case "java2d" -> new GameRenderer();
+            case "framebuffer" -> {
+                if ( ! fitsTarget( gridSize ) ) {
+                    throw new IllegalArgumentException( "Grid " + gridSize + "x" + gridSize + " needs a framebuffer larger than " + width + "x" + height );
+                }
+                yield new FramebufferRenderer( Math.min( MAX_PIXELS_PER_CELL, Math.min( width, height ) / gridSize ) );
+            }
+            default -> throw new IllegalArgumentException( "Unknown render mode: " + mode );
+        };
+    }
+
+    // whether a framebuffer with at least one pixel per cell fits into the target
+    private boolean fitsTarget(int gridSize)
+    {
+        return gridSize <= width && gridSize <= height;
+    }
+
+    private static long percentile(long[] sorted, double p)
+    {
+        final int idx = (int) Math.ceil( p * sorted.length ) - 1;
+        return sorted[Math.max( 0, Math.min( sorted.length - 1, idx ) )];
+    }
+
+    public static void main(String[] args)
+    {
+        System.setProperty( "java.awt.headless", "true" );
+
+        final int frames = args.length > 0 ? Integer.parseInt( args[0] ) : 1000;
+        final int warmupFrames = args.length > 1 ? Integer.parseInt( args[1] ) : 200;
+        final int width = args.length > 2 ? Integer.parseInt( args[2] ) : 1280;
+        final int height = args.length > 3 ? Integer.parseInt( args[3] ) : 960;
+
+        final FrameBenchmark benchmark = new FrameBenchmark( frames, warmupFrames, width, height );
+        System.out.println( Result.csvHeader() );
+        for ( String mode : MODES )
+        {
+            for ( int gridSize : GRID_SIZES )
+            {
+                for ( int snakeLength : SNAKE_LENGTHS )
+                {
+                    for ( int appleCount : APPLE_COUNTS )
+                    {
+                        final int maxItems = gridSize * gridSize / 2;
+                        if ( snakeLength > maxItems || appleCount > maxItems || snakeLength + appleCount > gridSize * gridSize ) {
+                            continue;
+                        }
+                        if ( mode.equals( "framebuffer" ) && ! benchmark.fitsTarget( gridSize ) ) {
+                            continue;
+                        }
+                        System.out.println( benchmark.run( mode, gridSize, snakeLength, appleCount ).toCSV() );
+                    }
+                }
+            }
+        }
+    }
+}
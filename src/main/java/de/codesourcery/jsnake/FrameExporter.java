@@ -0,0 +1,239 @@
+package de.codesourcery.jsnake;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+
+/**
+ * Renders game snapshots into PNG files without requiring a display.
+ *
+ * Frames are rendered and PNG-encoded in parallel by a pool of worker threads while the calling
+ * thread writes the encoded frames to disk in order. The number of frames in flight is bounded,
+ * so memory usage does not depend on the length of the game being exported.
+ */
+public class FrameExporter
+{
+    private static final Color BACKGROUND = new Color( 0xee, 0xee, 0xee );
+
+    private final int width;
+    private final int height;
+    private final int threadCount;
+    private final int maxFramesInFlight;
+
+    public FrameExporter(int width, int height, int threadCount, int maxFramesInFlight)
+    {
+        if ( width < 1 || height < 1 ) {
+            throw new IllegalArgumentException( "Invalid frame size: " + width + "x" + height );
+        }
+        if ( threadCount < 1 ) {
+            throw new IllegalArgumentException( "Thread count must be >= 1" );
+        }
+        if ( maxFramesInFlight < threadCount ) {
+            throw new IllegalArgumentException( "Max. frames in flight must be >= thread count" );
+        }
+        this.width = width;
+        this.height = height;
+        this.threadCount = threadCount;
+        this.maxFramesInFlight = maxFramesInFlight;
+    }
+
+    /**
+     * Renders frames and writes them as <code>frame-000000.png</code>, <code>frame-000001.png</code>, ...
+     *
+     * @param frames snapshots to render, must not be modified after being returned by the iterator
+     * @param outputDir directory to write PNG files to, gets created if it does not exist
+     * @return number of frames written
+     * @throws IOException
+     * @throws InterruptedException
+     * @see Game#copy()
+     */
+    public int export(Iterator<Frame> frames, Path outputDir) throws IOException, InterruptedException
+    {
+        Files.createDirectories( outputDir );
+
+        final AtomicInteger threadId = new AtomicInteger();
+        final ExecutorService pool = Executors.newFixedThreadPool( threadCount, r -> {
+            final Thread t = new Thread( r, "frame-exporter-" + threadId.incrementAndGet() );
+            t.setDaemon( true );
+            return t;
+        } );
+
+        // per-thread renderer and image, re-used for every frame rendered by that thread
+        final ThreadLocal<FrameRenderer> renderers = ThreadLocal.withInitial( () -> new FrameRenderer( width, height ) );
+
+        final ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<>( maxFramesInFlight );
+        int written = 0;
+        try
+        {
+            while ( frames.hasNext() || ! inFlight.isEmpty() )
+            {
+                while ( frames.hasNext() && inFlight.size() < maxFramesInFlight )
+                {
+                    final Frame frame = frames.next();
+                    inFlight.add( pool.submit( () -> renderers.get().renderToPNG( frame ) ) );
+                }
+                final byte[] png = get( inFlight.removeFirst() );
+                Files.write( outputDir.resolve( "frame-%06d.png".formatted( written++ ) ), png );
+            }
+        }
+        finally
+        {
+            inFlight.forEach( f -> f.cancel( true ) );
+            pool.shutdownNow();
+        }
+        return written;
+    }
+
+    private static byte[] get(Future<byte[]> future) throws IOException, InterruptedException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch( ExecutionException e )
+        {
+            if ( e.getCause() instanceof UncheckedIOException ex ) {
+                throw ex.getCause();
+            }
+            throw new RuntimeException( e.getCause() );
+        }
+    }
+
+    /**
+     * A game snapshot to be rendered.
+     *
+     * @param game game state, not modified by the exporter
+     * @param movementProgress how far the snake has moved towards its next position, in [0,1]
+     */
+    public record Frame(Game game, float movementProgress)
+    {
+        /**
+         * Takes a snapshot of a game.
+         *
+         * @param game
+         * @return frame holding a copy of the game
+         */
+        public static Frame of(Game game) {
+            return new Frame( game.copy(), game.movementProgress( 0 ) );
+        }
+    }
+
+    private static final class FrameRenderer
+    {
+        private final GameRenderer renderer = new GameRenderer();
+        private final BufferedImage image;
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream( 64 * 1024 );
+
+        FrameRenderer(int width, int height)
+        {
+            image = new BufferedImage( width, height, BufferedImage.TYPE_INT_RGB );
+        }
+
+        byte[] renderToPNG(Frame frame)
+        {
+            final Graphics2D g = image.createGraphics();
+            try
+            {
+                g.setBackground( BACKGROUND );
+                renderer.render( frame.game(), frame.movementProgress(), g, image.getWidth(), image.getHeight() );
+            }
+            finally
+            {
+                g.dispose();
+            }
+            out.reset();
+            try
+            {
+                ImageIO.write( image, "png", out );
+            }
+            catch( IOException e )
+            {
+                throw new UncheckedIOException( e );
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Exports a demo game, driven by random input.
+     *
+     * Usage: <code>FrameExporter [output directory] [max. frames] [width] [height]</code>
+     */
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        System.setProperty( "java.awt.headless", "true" );
+
+        final Path outputDir = Paths.get( args.length > 0 ? args[0] : "frames" );
+        final int maxFrames = args.length > 1 ? Integer.parseInt( args[1] ) : 1000;
+        final int width = args.length > 2 ? Integer.parseInt( args[2] ) : 640;
+        final int height = args.length > 3 ? Integer.parseInt( args[3] ) : 480;
+
+        final Game game = new Game( 20, 20, 0xdeadbeefL );
+        game.reset();
+        final Random input = new Random( 42 );
+
+        final Iterator<Frame> frames = new Iterator<>()
+        {
+            private int count;
+
+            @Override
+            public boolean hasNext()
+            {
+                return count < maxFrames && ! game.isGameOver();
+            }
+
+            @Override
+            public Frame next()
+            {
+                if ( ! hasNext() ) {
+                    throw new NoSuchElementException();
+                }
+                if ( count++ > 0 ) {
+                    game.tick( randomDirection() );
+                }
+                return Frame.of( game );
+            }
+
+            // turn randomly every now and then right before the snake moves, steering clear of obstacles
+            private Direction randomDirection()
+            {
+                if ( (game.getFrameCount() + 1) % game.ticksTillMovement() != 0 ) {
+                    return null;
+                }
+                final int headX = game.getSnake().headX();
+                final int headY = game.getSnake().headY();
+                Direction result = input.nextInt( 5 ) == 0 ? Direction.values()[input.nextInt( 4 )] : game.getDirection();
+                for ( int i = 0; i < 8 && ( result == game.getDirection().reversed() || isBlocked( headX + result.dx, headY + result.dy ) ); i++ ) {
+                    result = Direction.values()[input.nextInt( 4 )];
+                }
+                return result;
+            }
+
+            private boolean isBlocked(int x, int y) {
+                return game.isOutsidePlayingField( x, y ) || game.getSnake().isBodyPartAt( x, y );
+            }
+        };
+
+        final int threads = Runtime.getRuntime().availableProcessors();
+        final long start = System.nanoTime();
+        final int written = new FrameExporter( width, height, threads, threads * 4 ).export( frames, outputDir );
+        final long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        System.out.println( "Exported " + written + " frames to " + outputDir.toAbsolutePath() + " in " + elapsedMillis + " ms" );
+    }
+}
@@ -0,0 +1,223 @@
+package de.codesourcery.jsnake;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Draws a {@link Game} into a small framebuffer with a fixed number of pixels per cell
+ * and scales it to the drawing area with a single nearest-neighbour blit.
+ *
+ * All game graphics are written directly into the framebuffer's <code>int[]</code> raster
+ * using integer math, so the cost of rendering the game itself does not depend on the size
+ * of the drawing area. The HUD is drawn at full resolution after the blit.
+ *
+ * Instances are not thread-safe, use one renderer per thread.
+ */
+public class FramebufferRenderer implements Renderer
+{
+    private static final int SNAKE_COLOR = Color.RED.getRGB();
+    private static final int HEAD_OUTLINE_COLOR = Color.BLACK.getRGB();
+
+    private final int pixelsPerCell;
+
+    private final HUDRenderer hud = new HUDRenderer();
+
+    private BufferedImage framebuffer;
+    private int[] pixels;
+    private int stride;
+
+    // apple sprite, pre-blended with the background colour
+    private int[] applePixels;
+    private int appleBackground;
+
+    /**
+     * Create instance.
+     *
+     * @param pixelsPerCell framebuffer pixels per cell (in both directions), also the number
+     *                      of steps the snake's movement is interpolated with
+     */
+    public FramebufferRenderer(int pixelsPerCell)
+    {
+        if ( pixelsPerCell < 1 ) {
+            throw new IllegalArgumentException( "Pixels per cell must be >= 1" );
+        }
+        this.pixelsPerCell = pixelsPerCell;
+    }
+
+    @Override
+    public void render(Game game, float perc, Graphics2D g, int width, int height)
+    {
+        final int background = g.getBackground().getRGB() | 0xff000000;
+        setup( game, background );
+
+        Arrays.fill( pixels, background );
+
+        for ( int i = 0, count = game.getAppleCount(); i < count; i++ ) {
+            drawApple( game.getAppleX( i ), game.getAppleY( i ) );
+        }
+
+        if ( game.isGameOver() ) {
+            perc = 1;
+        }
+        // number of pixels the snake has moved into its next cell
+        final int progress = Math.max( 1, Math.min( pixelsPerCell, (int) Math.ceil( perc * pixelsPerCell ) ) );
+
+        final Snake snake = game.getSnake();
+        final int snakeSize = snake.size();
+
+        renderTail( snake.x( 0 ), snake.y( 0 ), snake.direction( 1 ), progress );
+
+        // body between tail and head, one rectangle per straight run of body parts
+        for ( int run = 0, runStart = 0, runCount = snake.runCount(); run < runCount; run++ )
+        {
+            final int first = Math.max( runStart, 1 );
+            runStart += snake.runLength( run );
+            final int last = Math.min( runStart - 1, snakeSize - 2 );
+            if ( first <= last ) {
+                fillCells( snake.x( first ), snake.y( first ), snake.x( last ), snake.y( last ) );
+            }
+        }
+
+        final int head = snakeSize - 1;
+        renderHead( snake.x( head ), snake.y( head ), snake.direction( head ), progress );
+
+        final Object interpolation = g.getRenderingHint( RenderingHints.KEY_INTERPOLATION );
+        g.setRenderingHint( RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR );
+        g.drawImage( framebuffer, 0, 0, width, height, null );
+        if ( interpolation != null ) {
+            g.setRenderingHint( RenderingHints.KEY_INTERPOLATION, interpolation );
+        }
+
+        hud.render( game, g, width, height );
+    }
+
+    private void setup(Game game, int background)
+    {
+        final int fbWidth = game.gridX * pixelsPerCell;
+        final int fbHeight = game.gridY * pixelsPerCell;
+        if ( framebuffer == null || framebuffer.getWidth() != fbWidth || framebuffer.getHeight() != fbHeight )
+        {
+            framebuffer = new BufferedImage( fbWidth, fbHeight, BufferedImage.TYPE_INT_RGB );
+            pixels = ((DataBufferInt) framebuffer.getRaster().getDataBuffer()).getData();
+            stride = fbWidth;
+        }
+        if ( applePixels == null || appleBackground != background )
+        {
+            applePixels = loadApple( pixelsPerCell, background );
+            appleBackground = background;
+        }
+    }
+
+    private void drawApple(int cellX, int cellY)
+    {
+        final int x0 = cellX * pixelsPerCell;
+        final int y0 = cellY * pixelsPerCell;
+        for ( int y = 0; y < pixelsPerCell; y++ ) {
+            System.arraycopy( applePixels, y * pixelsPerCell, pixels, (y0 + y) * stride + x0, pixelsPerCell );
+        }
+    }
+
+    private void fillCells(int ax, int ay, int bx, int by)
+    {
+        final int minX = Math.min( ax, bx ) * pixelsPerCell;
+        final int minY = Math.min( ay, by ) * pixelsPerCell;
+        final int maxX = (Math.max( ax, bx ) + 1) * pixelsPerCell;
+        final int maxY = (Math.max( ay, by ) + 1) * pixelsPerCell;
+        fillRect( minX, minY, maxX - minX, maxY - minY, SNAKE_COLOR );
+    }
+
+    // the part of the tail cell the tail has not yet left
+    private void renderTail(int cellX, int cellY, Direction dir, int progress)
+    {
+        final int x = cellX * pixelsPerCell;
+        final int y = cellY * pixelsPerCell;
+        final int remaining = pixelsPerCell - progress;
+        switch( dir )
+        {
+            case RIGHT -> fillRect( x + progress, y, remaining, pixelsPerCell, SNAKE_COLOR );
+            case LEFT -> fillRect( x, y, remaining, pixelsPerCell, SNAKE_COLOR );
+            case UP -> fillRect( x, y, pixelsPerCell, remaining, SNAKE_COLOR );
+            case DOWN -> fillRect( x, y + progress, pixelsPerCell, remaining, SNAKE_COLOR );
+        }
+    }
+
+    // the part of the head cell the head already entered, outlined with a cell-sized rectangle ending at the head's front
+    private void renderHead(int cellX, int cellY, Direction dir, int progress)
+    {
+        final int x = cellX * pixelsPerCell;
+        final int y = cellY * pixelsPerCell;
+        final int back = pixelsPerCell - progress;
+        switch( dir )
+        {
+            case RIGHT -> {
+                fillRect( x, y, progress, pixelsPerCell, SNAKE_COLOR );
+                drawRect( x - back, y, pixelsPerCell, pixelsPerCell, HEAD_OUTLINE_COLOR );
+            }
+            case LEFT -> {
+                fillRect( x + back, y, progress, pixelsPerCell, SNAKE_COLOR );
+                drawRect( x + back, y, pixelsPerCell, pixelsPerCell, HEAD_OUTLINE_COLOR );
+            }
+            case UP -> {
+                fillRect( x, y + back, pixelsPerCell, progress, SNAKE_COLOR );
+                drawRect( x, y + back, pixelsPerCell, pixelsPerCell, HEAD_OUTLINE_COLOR );
+            }
+            case DOWN -> {
+                fillRect( x, y, pixelsPerCell, progress, SNAKE_COLOR );
+                drawRect( x, y - back, pixelsPerCell, pixelsPerCell, HEAD_OUTLINE_COLOR );
+            }
+        }
+    }
+
+    private void fillRect(int x, int y, int width, int height, int color)
+    {
+        final int x0 = Math.max( 0, x );
+        final int y0 = Math.max( 0, y );
+        final int x1 = Math.min( stride, x + width );
+        final int y1 = Math.min( framebuffer.getHeight(), y + height );
+        if ( x0 >= x1 ) {
+            return;
+        }
+        for ( int row = y0; row < y1; row++ ) {
+            Arrays.fill( pixels, row * stride + x0, row * stride + x1, color );
+        }
+    }
+
+    // one pixel wide outline
+    private void drawRect(int x, int y, int width, int height, int color)
+    {
+        fillRect( x, y, width, 1, color );
+        fillRect( x, y + height - 1, width, 1, color );
+        fillRect( x, y, 1, height, color );
+        fillRect( x + width - 1, y, 1, height, color );
+    }
+
+    private static int[] loadApple(int size, int background)
+    {
+        final BufferedImage image = GameRenderer.loadApple( size, size );
+        final int[] result = new int[size * size];
+        for ( int y = 0; y < size; y++ )
+        {
+            for ( int x = 0; x < size; x++ ) {
+                result[y * size + x] = blend( image.getRGB( x, y ), background );
+            }
+        }
+        return result;
+    }
+
+    private static int blend(int argb, int background)
+    {
+        final int alpha = argb >>> 24;
+        int result = 0xff000000;
+        for ( int shift = 0; shift <= 16; shift += 8 )
+        {
+            final int fg = (argb >>> shift) & 0xff;
+            final int bg = (background >>> shift) & 0xff;
+            result |= ((fg * alpha + bg * (255 - alpha)) / 255) << shift;
+        }
+        return result;
+    }
+}
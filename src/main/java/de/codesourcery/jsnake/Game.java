@@ -0,0 +1,507 @@
+package de.codesourcery.jsnake;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Game state and rules, independent of any UI.
+ *
+ * The game advances in fixed simulation ticks ({@link #tick(Direction)}), the snake
+ * moves one cell every {@link #ticksTillMovement()} ticks.
+ *
+ * Apples and the snake are stored in primitive arrays, once a game has been set up
+ * ticking it does not allocate.
+ */
+public class Game
+{
+    public static final int APPLES_PER_LEVEL = 10;
+
+    // apples get placed on a randomly picked free cell instead of a random cell once less than 1/Nth of all cells is free
+    private static final int NEARLY_FULL_RATIO = 16;
+
+    public record Apple(int x, int y) {}
+
+    /**
+     * Gets notified about changes to the game state, apart from the tick counter.
+     *
+     * Methods get invoked on the thread that modifies the game.
+     */
+    public interface Listener
+    {
+        /**
+         * The game has been reset, the whole state may have changed.
+         */
+        void reset(Game game);
+
+        void headAdded(int x, int y, Direction direction);
+
+        void tailRemoved();
+
+        void appleEaten(int x, int y);
+
+        void applePlaced(int x, int y);
+
+        void levelChanged(int level);
+
+        void gameOver();
+    }
+
+    public final int gridX;
+    public final int gridY;
+    public final int applesPerLevel;
+
+    // apples in no particular order, plus a grid for O(1) lookup
+    private final int[] appleXs;
+    private final int[] appleYs;
+    private final boolean[] appleAt;
+    private int appleCount;
+
+    private boolean gameOver;
+
+    private final Random rnd;
+
+    private int level = 1;
+
+    private int applesLeft;
+    private int applesEaten;
+
+    private long frameCount= 0;
+    private Direction direction = Direction.UP;
+
+    private final Snake snake;
+
+    private Listener listener;
+
+    public Game(int gridX, int gridY, long seed)
+    {
+        this( gridX, gridY, APPLES_PER_LEVEL, seed );
+    }
+
+    public Game(int gridX, int gridY, int applesPerLevel, long seed)
+    {
+        if ( gridX < 6 || gridY < 6 ) {
+            throw new IllegalArgumentException( "Grid needs to be at least 6x6 but was " + gridX + "x" + gridY );
+        }
+        if ( applesPerLevel < 1 || applesPerLevel > gridX * gridY / 2 ) {
+            throw new IllegalArgumentException( "Invalid number of apples per level: " + applesPerLevel );
+        }
+        this.gridX = gridX;
+        this.gridY = gridY;
+        this.applesPerLevel = applesPerLevel;
+        this.rnd = new Random( seed );
+        this.appleXs = new int[applesPerLevel];
+        this.appleYs = new int[applesPerLevel];
+        this.appleAt = new boolean[gridX * gridY];
+        this.snake = new Snake( gridX, gridY );
+    }
+
+    /**
+     * Returns a snapshot of this game.
+     *
+     * The snapshot does not share any mutable state with this instance, its random
+     * number generator is independent of this game's.
+     *
+     * @return copy
+     */
+    public Game copy()
+    {
+        return new Game( gridX, gridY, applesPerLevel, 0 ).copyFrom( this );
+    }
+
+    /**
+     * Overwrites this game's state with another game's state.
+     *
+     * This game's random number generator is left untouched.
+     *
+     * @param other game to copy from, must have the same grid size
+     * @return this instance (for chaining)
+     */
+    public Game copyFrom(Game other)
+    {
+        if ( other.gridX != gridX || other.gridY != gridY || other.applesPerLevel != applesPerLevel ) {
+            throw new IllegalArgumentException( "Grid size / apples per level mismatch" );
+        }
+        clearApples();
+        for ( int i = 0; i < other.appleCount; i++ ) {
+            addApple( other.appleXs[i], other.appleYs[i] );
+        }
+        snake.copyFrom( other.snake );
+        gameOver = other.gameOver;
+        level = other.level;
+        applesLeft = other.applesLeft;
+        applesEaten = other.applesEaten;
+        frameCount = other.frameCount;
+        direction = other.direction;
+        return this;
+    }
+
+    public int ticksTillMovement() {
+        return Math.max( 1, Math.round( 30 - (level - 1) * 1.5f ) );
+    }
+
+    /**
+     * Returns how far the snake has progressed from its last position towards the next one.
+     *
+     * @param tickFraction fraction of the current simulation tick that already elapsed, in [0,1]
+     * @return value in [0,1]
+     */
+    public float movementProgress(float tickFraction) {
+        final int tickCnt = ticksTillMovement();
+        final long delta = frameCount % tickCnt;
+        return Math.min( 1f, (delta + tickFraction) / tickCnt );
+    }
+
+    private void placeApples() {
+
+        // fewer apples if the board is nearly full
+        final int cells = gridX * gridY;
+        int count = Math.min( applesPerLevel, cells - snake.size() );
+        applesLeft = count;
+        clearApples();
+        while( count > 0 ) {
+            int x, y;
+            final int free = cells - snake.size() - appleCount;
+            if ( free * NEARLY_FULL_RATIO < cells )
+            {
+                // random cells would mostly be occupied
+                final int cell = freeCell( rnd.nextInt( free ) );
+                x = cell % gridX;
+                y = cell / gridX;
+            }
+            else
+            {
+                x = rnd.nextInt( gridX );
+                y = rnd.nextInt( gridY );
+            }
+            if ( ! snake.isBodyPartAt( x, y ) && ! isAppleAt( x, y ) ) {
+                addApple( x, y );
+                count--;
+                if ( listener != null ) {
+                    listener.applePlaced( x, y );
+                }
+            }
+        }
+    }
+
+    // index of the n-th cell that is neither occupied by the snake nor by an apple
+    private int freeCell(int n)
+    {
+        for ( int y = 0, cell = 0; y < gridY; y++ )
+        {
+            for ( int x = 0; x < gridX; x++, cell++ )
+            {
+                if ( ! snake.isBodyPartAt( x, y ) && ! appleAt[cell] && n-- == 0 ) {
+                    return cell;
+                }
+            }
+        }
+        throw new IllegalStateException( "No free cell left" );
+    }
+
+    private void clearApples()
+    {
+        for ( int i = 0; i < appleCount; i++ ) {
+            appleAt[appleYs[i] * gridX + appleXs[i]] = false;
+        }
+        appleCount = 0;
+    }
+
+    private void addApple(int x, int y)
+    {
+        appleXs[appleCount] = x;
+        appleYs[appleCount] = y;
+        appleCount++;
+        appleAt[y * gridX + x] = true;
+    }
+
+    private boolean removeApple(int x, int y)
+    {
+        if ( ! isAppleAt( x, y ) ) {
+            return false;
+        }
+        appleAt[y * gridX + x] = false;
+        for ( int i = 0; i < appleCount; i++ )
+        {
+            if ( appleXs[i] == x && appleYs[i] == y )
+            {
+                // move last apple into the gap
+                appleCount--;
+                appleXs[i] = appleXs[appleCount];
+                appleYs[i] = appleYs[appleCount];
+                break;
+            }
+        }
+        return true;
+    }
+
+    public void reset()
+    {
+        this.snake.clear();
+        this.level = 1;
+        this.gameOver = false;
+        this.frameCount = 0;
+        this.applesEaten = 0;
+
+        // place snake before the apples, apples can always be placed around it
+        direction = Direction.UP;
+        final int startX = rnd.nextInt( 2, gridX - 3 );
+        final int startY = rnd.nextInt( 2, gridY - 3 );
+        snake.add( startX, startY, Direction.LEFT ); /// tail
+        snake.add( startX - 1, startY, direction ); /// head
+
+        placeApples();
+
+        if ( listener != null ) {
+            listener.reset( this );
+        }
+    }
+
+    /**
+     * Resets the game with a snake of a given length, for benchmarking purposes.
+     *
+     * The snake gets laid out row by row in a zig-zag pattern starting at the top-left corner,
+     * apples are placed afterwards.
+     *
+     * @param snakeLength snake length, at least 2 and at most half the number of cells
+     */
+    public void reset(int snakeLength)
+    {
+        if ( snakeLength < 2 || snakeLength > gridX * gridY / 2 ) {
+            throw new IllegalArgumentException( "Invalid snake length: " + snakeLength );
+        }
+        this.snake.clear();
+        this.level = 1;
+        this.gameOver = false;
+        this.frameCount = 0;
+        this.applesEaten = 0;
+
+        int x = 0, y = 0;
+        Direction dir = Direction.RIGHT;
+        snake.add( x, y, dir );
+        for ( int i = 1; i < snakeLength; i++ )
+        {
+            if ( isOutsidePlayingField( x + dir.dx, y ) ) {
+                // move down one row and reverse
+                snake.add( x, ++y, Direction.DOWN );
+                dir = dir.reversed();
+                continue;
+            }
+            x += dir.dx;
+            snake.add( x, y, dir );
+        }
+        direction = snake.direction( snake.size() - 1 );
+
+        placeApples();
+        if ( listener != null ) {
+            listener.reset( this );
+        }
+    }
+
+    public boolean isAppleAt(int x, int y) {
+        return ! isOutsidePlayingField( x, y ) && appleAt[y * gridX + x];
+    }
+
+    /**
+     * Advances the game by one simulation tick.
+     *
+     * @param newDirection direction requested by the player, <code>null</code> to keep the current direction
+     */
+    public void tick(Direction newDirection)
+    {
+        if ( gameOver ) {
+            return;
+        }
+
+        changeDirection( newDirection );
+
+        if ( (++frameCount % ticksTillMovement() != 0) )
+        {
+            return;
+        }
+        move();
+    }
+
+    /**
+     * Skips all simulation ticks up to and including the snake's next movement.
+     *
+     * @param newDirection direction requested by the player, <code>null</code> to keep the current direction
+     */
+    public void advance(Direction newDirection)
+    {
+        if ( gameOver ) {
+            return;
+        }
+
+        changeDirection( newDirection );
+
+        final int tickCnt = ticksTillMovement();
+        frameCount += tickCnt - (frameCount % tickCnt);
+        move();
+    }
+
+    private void changeDirection(Direction newDirection)
+    {
+        // prevent impossible direction changes
+        if ( newDirection != null && newDirection != direction.reversed() ) {
+            direction = newDirection;
+        }
+    }
+
+    private void move()
+    {
+        // advance snake in movement direction
+        final int newX = snake.headX() + direction.dx;
+        final int newY = snake.headY() + direction.dy;
+
+        // check collisions
+        if ( isOutsidePlayingField( newX, newY ) )
+        {
+            setGameOver();
+            return;
+        }
+
+        final boolean hitMyself = snake.isBodyPartAt( newX, newY );
+        snake.add( newX, newY, direction );
+        if ( listener != null ) {
+            listener.headAdded( newX, newY, direction );
+        }
+        if ( removeApple( newX, newY ) )
+        {
+            applesEaten++;
+            applesLeft--;
+            if ( listener != null ) {
+                listener.appleEaten( newX, newY );
+            }
+            if ( snake.size() == gridX * gridY )
+            {
+                // board is full, no cell left to move to
+                setGameOver();
+                return;
+            }
+            if ( applesLeft == 0 )
+            {
+                placeApples();
+                level++;
+                if ( listener != null ) {
+                    listener.levelChanged( level );
+                }
+            }
+        }
+        else if ( !hitMyself )
+        {
+            snake.removeTailBodyPart();
+            if ( listener != null ) {
+                listener.tailRemoved();
+            }
+        }
+
+        if ( hitMyself )
+        {
+            setGameOver();
+        }
+    }
+
+    private void setGameOver()
+    {
+        gameOver = true;
+        if ( listener != null ) {
+            listener.gameOver();
+        }
+    }
+
+    /**
+     * Sets the listener to notify about state changes.
+     *
+     * Copies created by {@link #copy()} do not inherit the listener.
+     *
+     * @param listener listener, <code>null</code> to remove the current one
+     */
+    public void setListener(Listener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Re-seeds the random number generator used to place apples.
+     *
+     * @param seed
+     */
+    public void setSeed(long seed)
+    {
+        rnd.setSeed( seed );
+    }
+
+    public boolean isOutsidePlayingField(int newX, int newY)
+    {
+        return newX < 0 || newY < 0 || newX >= gridX || newY >= gridY;
+    }
+
+    public boolean isGameOver()
+    {
+        return gameOver;
+    }
+
+    public int getLevel()
+    {
+        return level;
+    }
+
+    public int getApplesEaten()
+    {
+        return applesEaten;
+    }
+
+    public long getFrameCount()
+    {
+        return frameCount;
+    }
+
+    public Direction getDirection()
+    {
+        return direction;
+    }
+
+    public Snake getSnake()
+    {
+        return snake;
+    }
+
+    /**
+     * Returns the apples currently on the board.
+     *
+     * Allocates a new set on every call, use {@link #getAppleCount()}, {@link #getAppleX(int)}
+     * and {@link #getAppleY(int)} on hot paths.
+     *
+     * @return apples
+     */
+    public Set<Apple> getApples()
+    {
+        final Set<Apple> result = new HashSet<>();
+        for ( int i = 0; i < appleCount; i++ ) {
+            result.add( new Apple( appleXs[i], appleYs[i] ) );
+        }
+        return result;
+    }
+
+    public int getAppleCount()
+    {
+        return appleCount;
+    }
+
+    /**
+     * Returns an apple's X coordinate.
+     *
+     * @param idx apple index in [0,{@link #getAppleCount()}), indices change when apples get eaten
+     * @return X coordinate
+     */
+    public int getAppleX(int idx)
+    {
+        return appleXs[idx];
+    }
+
+    public int getAppleY(int idx)
+    {
+        return appleYs[idx];
+    }
+}
@@ -0,0 +1,205 @@
+package de.codesourcery.jsnake;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import javax.imageio.ImageIO;
+
+/**
+ * Draws a {@link Game} onto a {@link Graphics2D} of arbitrary size, using Java2D primitives at full resolution.
+ *
+ * Instances cache scaled images and are not thread-safe, use one renderer per thread.
+ */
+public class GameRenderer implements Renderer
+{
+    private static final Color SNAKE_COLOR = Color.RED;
+
+    private static final String APPLE_PATH = "/apple.png";
+
+    // decoded, unscaled apple image shared by all renderers
+    private static CompletableFuture<BufferedImage> decodedApple;
+
+    private float dx, dy;
+
+    private BufferedImage apple;
+
+    private final HUDRenderer hud = new HUDRenderer();
+
+    private BufferedImage getApple(int width,int height)
+    {
+        if ( apple == null || ( apple.getWidth() != width && apple.getHeight() != height) )
+        {
+            apple = loadApple( width, height );
+        }
+        return apple;
+    }
+
+    @Override
+    public void render(Game game, float perc, Graphics2D g, int width, int height)
+    {
+        // same as clearRect() for opaque backgrounds, but clearRect() switches composites which makes the next drawString() re-validate fonts
+        g.setColor( g.getBackground() );
+        g.fillRect( 0, 0, width, height );
+
+        dx = width / (float) game.gridX;
+        dy = height / (float) game.gridY;
+
+        final BufferedImage apple = getApple( (int) Math.ceil( dx ), (int) Math.ceil( dy ) );
+
+        renderApples( game, apple, g );
+
+        // render snake
+        if ( game.isGameOver() ) {
+            perc = 1;
+        }
+
+        final Snake snake = game.getSnake();
+        final int snakeSize = snake.size();
+
+        renderTail( snake, perc, g );
+
+        // render body between tail and head, one rectangle per straight run of body parts
+        g.setColor( SNAKE_COLOR );
+        for ( int run = 0, runStart = 0, runCount = snake.runCount(); run < runCount; run++ )
+        {
+            final int first = Math.max( runStart, 1 );
+            runStart += snake.runLength( run );
+            final int last = Math.min( runStart - 1, snakeSize - 2 );
+            if ( first <= last ) {
+                fillCells( snake.x( first ), snake.y( first ), snake.x( last ), snake.y( last ), g );
+            }
+        }
+
+        final int head = snakeSize - 1;
+        renderHead( SNAKE_COLOR, snake.x( head ), snake.y( head ), snake.direction( head ), perc, g );
+
+        hud.render( game, g, width, height );
+    }
+
+    private void renderApples(Game game, BufferedImage apple, Graphics2D g) {
+        for ( int i = 0, count = game.getAppleCount(); i < count; i++ ) {
+            renderImage( game.getAppleX( i ), game.getAppleY( i ), apple, g );
+        }
+    }
+
+    private void renderImage(int x, int y, BufferedImage image, Graphics g) {
+        final int cx = round( x * dx );
+        final int cy = round( y * dy );
+        g.drawImage( image, cx, cy, null );
+    }
+
+    private void fillCells(int ax, int ay, int bx, int by, Graphics2D g) {
+        final int minX = round( Math.min( ax, bx ) * dx );
+        final int minY = round( Math.min( ay, by ) * dy );
+        final int maxX = round( Math.max( ax, bx ) * dx ) + round( dx );
+        final int maxY = round( Math.max( ay, by ) * dy ) + round( dy );
+        g.fillRect( minX, minY, maxX - minX, maxY - minY );
+    }
+
+    private void renderTail(Snake snake, float perc, Graphics2D g) {
+        // a tail that is about to turn moves in the direction of the next body part
+        renderTail( SNAKE_COLOR, snake.x( 0 ), snake.y( 0 ), snake.direction( 1 ), perc, g );
+    }
+
+    private void renderTail(Color color, int x, int y, Direction dir, float fillFactor, Graphics2D g) {
+        float perc = Math.max( 0.01f, Math.min( 1.0f, fillFactor ) );
+
+        final float topLeftX = x * dx;
+        final float topLeftY = y * dy;
+
+        g.setColor( color );
+        switch(dir) {
+            case RIGHT -> g.fillRect( round(topLeftX+perc*dx)   , round(topLeftY)           , round(dx-dx*perc), round(dy) );
+            case LEFT  -> g.fillRect( round(topLeftX), round(topLeftY)           , round(dx-dx*perc), round(dy) );
+            case UP    -> g.fillRect( round(topLeftX)           , round(topLeftY), round(dx)     , round(dy - dy*perc) );
+            case DOWN  -> g.fillRect( round(topLeftX)           , round(topLeftY +dy*perc)  , round(dx)     , round(dy - dy*perc) );
+        }
+    }
+
+    private void renderHead(Color color, int x, int y, Direction dir, float fillFactor, Graphics2D g) {
+        float perc = Math.max( 0.01f, Math.min( 1.0f, fillFactor ) );
+
+        final float topLeftX = x * dx;
+        final float topLeftY = y * dy;
+
+        switch(dir) {
+            case RIGHT -> fillHeadRect( color, dir, round(topLeftX)           , round(topLeftY)           , round(dx*perc), round(dy), g );
+            case LEFT  -> fillHeadRect( color, dir, round(topLeftX+dx-dx*perc), round(topLeftY)           , round(dx*perc), round(dy), g);
+            case UP    -> fillHeadRect( color, dir, round(topLeftX)           , round(topLeftY+dy-dy*perc), round(dx)     , round(dy*perc), g );
+            case DOWN  -> fillHeadRect( color, dir, round(topLeftX)           , round(topLeftY)  , round(dx)     , round(dy*perc), g);
+        };
+    }
+
+    private void fillHeadRect(Color color, Direction dir, int x , int y , int width, int height, Graphics g) {
+        g.setColor( color );
+
+        g.fillRect( x, y, width, height );
+        g.setColor( Color.BLACK );
+
+        if ( dir == Direction.RIGHT )
+        {
+            g.drawRect( round(x - dx + width), y, round(dx), round(dy) );
+        }
+        else if ( dir == Direction.DOWN )
+        {
+            g.drawRect( x, round(y + height - dy -1 ), round(dx), round(dy) );
+        }
+        else
+        {
+            g.drawRect( x, y, round(dx), round(dy) );
+        }
+    }
+
+    private static int round(float x) {
+        return (int) Math.ceil(x);
+    }
+
+    /**
+     * Starts decoding the apple image on a background thread, unless that already happened.
+     *
+     * Renderers wait for the decoding to finish when they need the image for the first time,
+     * calling this method early keeps image decoding off the critical path to the first frame.
+     *
+     * @return the decoded image
+     */
+    public static synchronized CompletableFuture<BufferedImage> preloadApple()
+    {
+        if ( decodedApple == null ) {
+            decodedApple = CompletableFuture.supplyAsync( () -> decode( APPLE_PATH ) );
+        }
+        return decodedApple;
+    }
+
+    static BufferedImage loadApple(int width, int height) {
+        final BufferedImage img = preloadApple().join();
+        final Image scaled = img.getScaledInstance( width, height, BufferedImage.SCALE_SMOOTH );
+        if ( !(scaled instanceof BufferedImage buf ) ) {
+            BufferedImage result = new BufferedImage( width, height, img.getType() );
+            final Graphics2D gfx = result.createGraphics();
+            gfx.drawImage( scaled, 0, 0, null );
+            gfx.dispose();
+            return result;
+        }
+        return buf;
+    }
+
+    private static BufferedImage decode(String classPath) {
+        final InputStream in = GameRenderer.class.getResourceAsStream( classPath );
+        if ( in == null ) {
+            throw new RuntimeException( "Failed to load classpath:"+classPath );
+        }
+        try
+        {
+            return ImageIO.read( in );
+        }
+        catch( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+}
@@ -5,9 +5,11 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -15,22 +17,55 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 
-public class GamepadEventReader
+public class GamepadEventReader implements AutoCloseable
 {
     private static final InputEvent POISON_PILL =
         new InputEvent( 0, 0, EventType.EV_UNKNOWN, new UnrecognizedCode( 0 ), 0 );
 
+    private static final String DEVICE_PATH = "/dev/input/by-id/usb-HJC_Game_GAME_FOR_WINDOWS___00000000-event-joystick";
+
+    /**
+     * How events are read from the device.
+     */
+    public enum Backend
+    {
+        /** Blocking reads of single events through a {@link FileChannel} */
+        CHANNEL,
+        /** Non-blocking batched reads through an {@link EpollEventReader} */
+        EPOLL
+    }
+
     private final ByteBuffer buffer = ByteBuffer.allocateDirect( 8 + 8 + 2 + 2 + 4 );
+    // exactly one of these is set
     private final FileChannel in;
+    private final EpollEventReader source;
     private final BlockingQueue<InputEvent> queue;
     private final AtomicInteger dropCounter = new AtomicInteger();
     private volatile Predicate<InputEvent> filter = _ -> true;
     private volatile boolean terminate;
     private volatile boolean crashed;
+    private volatile boolean coalesceAxes;
+
+    // SYN_XXX codes (used with EV_SYN events)
+    private static final int SYN_REPORT = 0;
+    private static final int SYN_DROPPED = 3;
+
+    // number of distinct EV_ABS codes (ABS_CNT)
+    private static final int ABS_CNT = 0x40;
+
+    // latest EV_ABS event per axis since the last SYN_REPORT, only used when coalescing axes
+    private final InputEvent[] pendingAxisEvents = new InputEvent[ABS_CNT];
+    private long pendingAxes;
 
     private Thread thread;
+    private boolean sourceStarted;
+
+    // thread started by registerListener(), stopped by close()
+    private volatile Thread consumer;
 
-    public sealed interface Code permits AbsCodes, UnrecognizedCode { }
+    public sealed interface Code permits AbsCodes, UnrecognizedCode {
+        int id();
+    }
 
     public record UnrecognizedCode(int id) implements Code {}
 
@@ -75,6 +110,11 @@ public class GamepadEventReader
             Holder.map.put( id, this );
         }
 
+        @Override
+        public int id() {
+            return id;
+        }
+
         public static AbsCodes parseId(int id) {
             final AbsCodes event = Holder.map.get( id & 0xffff );
             return event;
@@ -162,8 +202,9 @@ public class GamepadEventReader
             final long tvSec = buffer.getLong();
             final long tvUsec = buffer.getLong();
 
-            final short type = buffer.getShort();
-            final short codeId = buffer.getShort();
+            // both are unsigned
+            final int type = buffer.getShort() & 0xffff;
+            final int codeId = buffer.getShort() & 0xffff;
             final int value = buffer.getInt();
 
             Code code = AbsCodes.parseId( codeId );
@@ -178,14 +219,82 @@ public class GamepadEventReader
     public GamepadEventReader(String devicePath, int maxQueueSize) throws IOException {
         buffer.order( ByteOrder.LITTLE_ENDIAN );
         in = FileChannel.open( Paths.get( devicePath ) );
+        source = null;
+        queue = new ArrayBlockingQueue<>(maxQueueSize);
+    }
+
+    /**
+     * Create instance that reads events from all file descriptors added to an {@link EpollEventReader}.
+     *
+     * @param source reader to take events from, must not have been started yet
+     * @param maxQueueSize
+     */
+    public GamepadEventReader(EpollEventReader source, int maxQueueSize) {
+        in = null;
+        this.source = source;
         queue = new ArrayBlockingQueue<>(maxQueueSize);
     }
 
+    /**
+     * Opens a device.
+     *
+     * @param devicePath
+     * @param maxQueueSize
+     * @param backend
+     * @return reader, not started yet
+     * @throws IOException
+     */
+    public static GamepadEventReader open(String devicePath, int maxQueueSize, Backend backend) throws IOException
+    {
+        if ( backend == Backend.CHANNEL ) {
+            return new GamepadEventReader( devicePath, maxQueueSize );
+        }
+        final EpollEventReader source = new EpollEventReader();
+        try
+        {
+            source.open( devicePath, false );
+        }
+        catch( IOException e )
+        {
+            source.close();
+            throw e;
+        }
+        return new GamepadEventReader( source, maxQueueSize );
+    }
+
     public synchronized void start() {
+        if ( source != null )
+        {
+            // an EpollEventReader cannot be restarted
+            if ( ! sourceStarted )
+            {
+                clearPendingAxes();
+                source.start( new EpollEventReader.Listener()
+                {
+                    @Override
+                    public void onEvent(int fd, InputEvent event)
+                    {
+                        process( event );
+                    }
+
+                    @Override
+                    public void onDeviceRemoved(int fd, IOException cause)
+                    {
+                        if ( cause != null ) {
+                            cause.printStackTrace();
+                        }
+                        crash();
+                    }
+                } );
+                sourceStarted = true;
+            }
+            return;
+        }
         if ( thread == null || ! thread.isAlive() ) {
             crashed = false;
             terminate = false;
             dropCounter.set( 0 );
+            clearPendingAxes();
             Thread t = new Thread( this::run, "controller-event-reader" );
             t.setDaemon( true );
             t.start();
@@ -193,6 +302,37 @@ public class GamepadEventReader
         }
     }
 
+    /**
+     * Stops reading events and closes the device.
+     *
+     * Also stops the thread translating events into button actions if this reader
+     * got passed to {@link #registerListener(Consumer, AnalogConfig, GamepadEventReader)}.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException
+    {
+        terminate = true;
+        try
+        {
+            if ( source != null ) {
+                // wakes up and joins the reader thread
+                source.close();
+            } else {
+                // makes a blocked read() fail, the reader thread then sees 'terminate' and exits
+                in.close();
+            }
+        }
+        finally
+        {
+            final Thread t = consumer;
+            if ( t != null ) {
+                t.interrupt();
+            }
+        }
+    }
+
     /**
      * Try to get event from queue (non-blocking).
      *
@@ -247,6 +387,23 @@ public class GamepadEventReader
         return dropCounter.get();
     }
 
+    /**
+     * Enables/disables coalescing of EV_ABS events.
+     *
+     * When enabled, only the most recent value of each axis is kept until the device
+     * signals the end of a report (EV_SYN / SYN_REPORT). The number of queued events
+     * is then bounded by the number of axes per report, no matter how often
+     * the device sends reports.
+     *
+     * @param coalesceAxes
+     * @return this instance (for chaining)
+     */
+    public GamepadEventReader setCoalesceAxes(boolean coalesceAxes)
+    {
+        this.coalesceAxes = coalesceAxes;
+        return this;
+    }
+
     public GamepadEventReader setFilter(Predicate<InputEvent> filter)
     {
         if ( filter == null ) {
@@ -270,19 +427,24 @@ public class GamepadEventReader
         }
         finally {
             if ( ! success ) {
-                crashed = true;
-                try
-                {
-                    queue.put( POISON_PILL );
-                }
-                catch( InterruptedException e )
-                {
-                    throw new RuntimeException( e );
-                }
+                crash();
             }
         }
     }
 
+    private void crash()
+    {
+        crashed = true;
+        try
+        {
+            queue.put( POISON_PILL );
+        }
+        catch( InterruptedException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+
     private void mainLoop() throws IOException
     {
         try ( in )
@@ -298,13 +460,7 @@ public class GamepadEventReader
                         throw new IOException( msg );
                     }
                     buffer.flip();
-                    final InputEvent record = InputEvent.parse( buffer );
-                    if ( filter.test( record ) ) {
-                        if ( ! queue.offer( record ) ) {
-                            dropCounter.incrementAndGet();
-                            System.err.println("Input event dropped.");
-                        }
-                    }
+                    process( InputEvent.parse( buffer ) );
                 }
                 catch( IOException e )
                 {
@@ -318,8 +474,106 @@ public class GamepadEventReader
         }
     }
 
+    private void process(InputEvent record)
+    {
+        if ( ! coalesceAxes || ! coalesce( record ) ) {
+            enqueue( record );
+        }
+    }
+
+    private void enqueue(InputEvent record)
+    {
+        if ( filter.test( record ) ) {
+            if ( ! queue.offer( record ) ) {
+                dropCounter.incrementAndGet();
+                System.err.println("Input event dropped.");
+            }
+        }
+    }
+
+    /**
+     * Holds back EV_ABS events until the end of the current report.
+     *
+     * @param record
+     * @return <code>true</code> if the event has been consumed, <code>false</code> if it should be queued as-is
+     */
+    private boolean coalesce(InputEvent record)
+    {
+        if ( record.hasType( EventType.EV_ABS ) && record.code().id() >= 0 && record.code().id() < ABS_CNT )
+        {
+            final int axis = record.code().id();
+            pendingAxisEvents[axis] = record;
+            pendingAxes |= 1L << axis;
+            return true;
+        }
+        if ( record.hasType( EventType.EV_SYN ) )
+        {
+            if ( record.code().id() == SYN_DROPPED )
+            {
+                // kernel buffer overrun, events of this report are incomplete
+                clearPendingAxes();
+            }
+            else if ( record.code().id() == SYN_REPORT )
+            {
+                while ( pendingAxes != 0 )
+                {
+                    final int axis = Long.numberOfTrailingZeros( pendingAxes );
+                    pendingAxes &= pendingAxes - 1;
+                    enqueue( pendingAxisEvents[axis] );
+                    pendingAxisEvents[axis] = null;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void clearPendingAxes()
+    {
+        Arrays.fill( pendingAxisEvents, null );
+        pendingAxes = 0;
+    }
+
     public enum Button
-    {UP, DOWN, LEFT, RIGHT,}
+    {
+        UP, DOWN, LEFT, RIGHT;
+
+        public Direction direction()
+        {
+            return switch( this )
+            {
+                case UP -> Direction.UP;
+                case DOWN -> Direction.DOWN;
+                case LEFT -> Direction.LEFT;
+                case RIGHT -> Direction.RIGHT;
+            };
+        }
+
+        public static Button of(Direction direction)
+        {
+            return switch( direction )
+            {
+                case UP -> UP;
+                case DOWN -> DOWN;
+                case LEFT -> LEFT;
+                case RIGHT -> RIGHT;
+            };
+        }
+    }
+
+    /**
+     * Removes all button presses from a queue.
+     *
+     * @param queue queue to drain
+     * @return button of the most recent press, <code>null</code> if the queue was empty
+     */
+    public static Button drainPresses(Queue<ButtonPress> queue)
+    {
+        Button last = null;
+        for ( ButtonPress press; (press = queue.poll()) != null; ) {
+            last = press.button;
+        }
+        return last;
+    }
 
     public static sealed abstract class ButtonAction permits ButtonPress, ButtonRelease
     {
@@ -339,31 +593,206 @@ public class GamepadEventReader
 
     public static final class ButtonPress extends ButtonAction
     {
-        public ButtonPress(Button button)
+        private static final ButtonPress[] INSTANCES = new ButtonPress[Button.values().length];
+
+        static {
+            for ( Button b : Button.values() ) {
+                INSTANCES[b.ordinal()] = new ButtonPress( b );
+            }
+        }
+
+        private ButtonPress(Button button)
         {
             super( button );
         }
+
+        /**
+         * Returns the (shared) instance for a button.
+         *
+         * @param button
+         * @return instance
+         */
+        public static ButtonPress of(Button button)
+        {
+            return INSTANCES[button.ordinal()];
+        }
     }
 
     public static final class ButtonRelease extends ButtonAction
     {
-        public ButtonRelease(Button button)
+        private static final ButtonRelease[] INSTANCES = new ButtonRelease[Button.values().length];
+
+        static {
+            for ( Button b : Button.values() ) {
+                INSTANCES[b.ordinal()] = new ButtonRelease( b );
+            }
+        }
+
+        private ButtonRelease(Button button)
         {
             super( button );
         }
+
+        /**
+         * Returns the (shared) instance for a button.
+         *
+         * @param button
+         * @return instance
+         */
+        public static ButtonRelease of(Button button)
+        {
+            return INSTANCES[button.ordinal()];
+        }
     }
 
-    public static void registerListener(Consumer<ButtonAction> listener) throws IOException
+    /**
+     * Configuration for mapping an analog stick to directional buttons.
+     *
+     * @param min value reported by the device for an axis at its minimum
+     * @param max value reported by the device for an axis at its maximum
+     * @param deadzone fraction of the axis range (measured from the center) a stick needs to be moved to register as a button press, in (0,1)
+     * @param hysteresis how far a stick needs to be moved back beyond the deadzone before a press gets released,
+     *                   also how much the other axis needs to exceed the current one to switch directions
+     */
+    public record AnalogConfig(int min, int max, float deadzone, float hysteresis)
     {
-        final String devicePath = "/dev/input/by-id/usb-HJC_Game_GAME_FOR_WINDOWS___00000000-event-joystick";
-        final GamepadEventReader reader = new GamepadEventReader( devicePath, 1024 );
-        reader.setFilter( x -> x.hasType( EventType.EV_ABS ) && x.hasCode(AbsCodes.ABS_HAT, AbsCodes.ABS_HAT0Y) );
+        public static final AnalogConfig DEFAULT = new AnalogConfig( 0, 255, 0.5f, 0.15f );
+
+        public AnalogConfig
+        {
+            if ( max <= min ) {
+                throw new IllegalArgumentException( "max must be > min" );
+            }
+            if ( deadzone <= 0 || deadzone >= 1 || hysteresis < 0 || hysteresis >= deadzone ) {
+                throw new IllegalArgumentException( "Need 0 < deadzone < 1 and 0 <= hysteresis < deadzone" );
+            }
+        }
+
+        // maps a raw axis value to [-1,1]
+        float normalize(long rawValue)
+        {
+            final float center = (min + max) / 2f;
+            final float value = ( (int) rawValue - center ) / ( (max - min) / 2f );
+            return Math.max( -1f, Math.min( 1f, value ) );
+        }
+    }
+
+    /**
+     * Turns the positions of an analog stick's two axes into directional button presses/releases.
+     */
+    static final class AnalogStick
+    {
+        private final AnalogConfig config;
+        private final Consumer<ButtonAction> listener;
+
+        private float x, y;
+        private Button pressed;
+
+        AnalogStick(AnalogConfig config, Consumer<ButtonAction> listener)
+        {
+            this.config = config;
+            this.listener = listener;
+        }
+
+        void setX(long rawValue) {
+            x = config.normalize( rawValue );
+            update();
+        }
+
+        void setY(long rawValue) {
+            y = config.normalize( rawValue );
+            update();
+        }
+
+        private void update()
+        {
+            final Button newButton = evaluate();
+            if ( newButton != pressed )
+            {
+                if ( pressed != null ) {
+                    listener.accept( ButtonRelease.of( pressed ) );
+                }
+                pressed = newButton;
+                if ( newButton != null ) {
+                    listener.accept( ButtonPress.of( newButton ) );
+                }
+            }
+        }
+
+        private Button evaluate()
+        {
+            final float ax = Math.abs( x );
+            final float ay = Math.abs( y );
+            final Button candidate;
+            if ( Math.max( ax, ay ) < config.deadzone() ) {
+                candidate = null;
+            } else if ( ax >= ay ) {
+                candidate = x < 0 ? Button.LEFT : Button.RIGHT;
+            } else {
+                candidate = y < 0 ? Button.UP : Button.DOWN;
+            }
+
+            if ( pressed == null || candidate == pressed ) {
+                return candidate;
+            }
+
+            // stick position along the currently pressed direction
+            final float current = switch( pressed )
+            {
+                case LEFT -> -x;
+                case RIGHT -> x;
+                case UP -> -y;
+                case DOWN -> y;
+            };
+            if ( current < config.deadzone() - config.hysteresis() ) {
+                return candidate;
+            }
+            if ( candidate != null && Math.max( ax, ay ) > current + config.hysteresis() ) {
+                return candidate;
+            }
+            return pressed;
+        }
+    }
+
+    public static GamepadEventReader registerListener(Consumer<ButtonAction> listener) throws IOException
+    {
+        return registerListener( listener, AnalogConfig.DEFAULT );
+    }
+
+    public static GamepadEventReader registerListener(Consumer<ButtonAction> listener, AnalogConfig analogConfig) throws IOException
+    {
+        return registerListener( listener, analogConfig, Backend.CHANNEL );
+    }
+
+    public static GamepadEventReader registerListener(Consumer<ButtonAction> listener, AnalogConfig analogConfig, Backend backend) throws IOException
+    {
+        return registerListener( listener, analogConfig, open( DEVICE_PATH, 1024, backend ) );
+    }
+
+    /**
+     * Starts a reader and translates its events into button presses/releases.
+     *
+     * @param listener listener to notify, invoked on a dedicated thread
+     * @param analogConfig
+     * @param reader reader to take events from, must not have been started yet
+     * @return the reader, close it to stop delivering events
+     */
+    public static GamepadEventReader registerListener(Consumer<ButtonAction> listener, AnalogConfig analogConfig, GamepadEventReader reader)
+    {
+        reader.setCoalesceAxes( true );
+        reader.setFilter( x -> x.hasType( EventType.EV_ABS ) &&
+            ( x.hasCode(AbsCodes.ABS_HAT, AbsCodes.ABS_HAT0Y) ||
+              x.hasCode(AbsCodes.ABS_X, AbsCodes.ABS_Y) ||
+              x.hasCode(AbsCodes.ABS_RX, AbsCodes.ABS_RY) ) );
         reader.start();
 
         final Thread t = new Thread( new Runnable()
         {
             private Button lastPressed;
 
+            private final AnalogStick leftStick = new AnalogStick( analogConfig, listener );
+            private final AnalogStick rightStick = new AnalogStick( analogConfig, listener );
+
             @Override
             public void run()
             {
@@ -387,11 +816,11 @@ public class GamepadEventReader
                                          */
                                     if ( event.value() == 0xffffffffL )
                                     {
-                                        listener.accept( new ButtonPress( lastPressed = Button.LEFT ) );
+                                        listener.accept( ButtonPress.of( lastPressed = Button.LEFT ) );
                                     }
                                     else if ( event.value() == 1L )
                                     {
-                                        listener.accept( new ButtonPress( lastPressed = Button.RIGHT ) );
+                                        listener.accept( ButtonPress.of( lastPressed = Button.RIGHT ) );
                                     }
                                     else if ( event.value() == 0L )
                                     {
@@ -399,7 +828,7 @@ public class GamepadEventReader
                                         {
                                             try
                                             {
-                                                listener.accept( new ButtonRelease( lastPressed ) );
+                                                listener.accept( ButtonRelease.of( lastPressed ) );
                                             }
                                             finally
                                             {
@@ -420,11 +849,11 @@ public class GamepadEventReader
  */
                                     if ( event.value() == 0xffffffffL )
                                     {
-                                        listener.accept( new ButtonPress( lastPressed = Button.UP ) );
+                                        listener.accept( ButtonPress.of( lastPressed = Button.UP ) );
                                     }
                                     else if ( event.value() == 1L )
                                     {
-                                        listener.accept( new ButtonPress( lastPressed = Button.DOWN ) );
+                                        listener.accept( ButtonPress.of( lastPressed = Button.DOWN ) );
                                     }
                                     else if ( event.value() == 0L )
                                     {
@@ -432,7 +861,7 @@ public class GamepadEventReader
                                         {
                                             try
                                             {
-                                                listener.accept( new ButtonRelease( lastPressed ) );
+                                                listener.accept( ButtonRelease.of( lastPressed ) );
                                             }
                                             finally
                                             {
@@ -445,6 +874,10 @@ public class GamepadEventReader
                                         System.err.println( "*** ignored event (2): " + event );
                                     }
                                 }
+                                case AbsCodes.ABS_X -> leftStick.setX( event.value() );
+                                case AbsCodes.ABS_Y -> leftStick.setY( event.value() );
+                                case AbsCodes.ABS_RX -> rightStick.setX( event.value() );
+                                case AbsCodes.ABS_RY -> rightStick.setY( event.value() );
                                 default -> System.err.println( "*** ignored event (3): " + event );
                             }
                         }
@@ -455,13 +888,18 @@ public class GamepadEventReader
                     }
                     catch( InterruptedException e )
                     {
+                        if ( reader.terminate ) {
+                            return;
+                        }
                         throw new RuntimeException( e );
                     }
                 }
             }
         }, "" );
         t.setDaemon( true );
+        reader.consumer = t;
         t.start();
+        return reader;
     }
 
     public static void main(String[] args) throws IOException, InterruptedException
@@ -0,0 +1,84 @@
+package de.codesourcery.jsnake;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+
+/**
+ * Draws the apple counter and the game over message.
+ *
+ * Not thread-safe.
+ */
+final class HUDRenderer
+{
+    private static final String GAME_OVER_TEXT = "*** GAME OVER ***";
+    private static final String HUD_PREFIX = "Apples eaten: ";
+
+    // HUD fonts derived from the graphics' default font and the HUD text, cached to not allocate per frame
+    private Font baseFont;
+    private Font hudFont;
+    private Font gameOverFont;
+    private Rectangle2D gameOverBounds;
+    private int hudApplesEaten = -1;
+    private final char[] hudText = new char[HUD_PREFIX.length() + 11];
+    private int hudTextLength;
+
+    /**
+     * Renders the HUD on top of an already rendered game.
+     *
+     * @param game game to render the HUD for
+     * @param g graphics to render to
+     * @param width width of the drawing area in pixels
+     * @param height height of the drawing area in pixels
+     */
+    public void render(Game game, Graphics2D g, int width, int height)
+    {
+        final Font font = g.getFont();
+        // switching fonts is expensive, so graphics reused across frames are left with a HUD font
+        if ( font != baseFont && font != hudFont && font != gameOverFont )
+        {
+            baseFont = g.getFont();
+            hudFont = baseFont.deriveFont( 16f );
+            gameOverFont = hudFont.deriveFont( 32f );
+            gameOverBounds = null;
+        }
+        if ( game.getApplesEaten() != hudApplesEaten )
+        {
+            hudApplesEaten = game.getApplesEaten();
+            hudTextLength = formatHUD( hudApplesEaten );
+        }
+
+        g.setFont( hudFont );
+        g.setColor( Color.BLUE );
+        g.drawChars( hudText, 0, hudTextLength, 15, 25 );
+
+        if ( game.isGameOver() ) {
+            g.setColor( Color.RED );
+            g.setFont( gameOverFont );
+            if ( gameOverBounds == null ) {
+                gameOverBounds = gameOverFont.getStringBounds( GAME_OVER_TEXT, g.getFontMetrics().getFontRenderContext() );
+            }
+            final float cx = (float) (width/2.0f - gameOverBounds.getWidth()/2.0f);
+            final float cy = (float) (height/2.0f - gameOverBounds.getHeight()/2.0f);
+            g.drawString( GAME_OVER_TEXT, round( cx ), round( cy ) );
+        }
+    }
+
+    // writes the HUD text into hudText without allocating, returns its length
+    private int formatHUD(int applesEaten)
+    {
+        HUD_PREFIX.getChars( 0, HUD_PREFIX.length(), hudText, 0 );
+        int len = HUD_PREFIX.length();
+        final int digits = applesEaten == 0 ? 1 : (int) Math.log10( applesEaten ) + 1;
+        for ( int i = len + digits - 1, value = applesEaten; i >= len; i--, value /= 10 ) {
+            hudText[i] = (char) ('0' + value % 10);
+        }
+        return len + digits;
+    }
+
+
+    private static int round(float x) {
+        return (int) Math.ceil(x);
+    }
+}
@@ -0,0 +1,425 @@
+package de.codesourcery.jsnake;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Autopilot that follows a Hamiltonian cycle, a closed path visiting every cell of the grid exactly once.
+ *
+ * As long as the snake's body parts are ordered along the cycle, following the cycle can never run into
+ * the body or a wall, so the snake fills the whole board. While the snake covers less than half the cycle
+ * it takes shortcuts towards the next apple, as long as the shortcut does not overtake its own tail and the snake
+ * stays within half the cycle.
+ *
+ * Grids with an odd number of cells have no Hamiltonian cycle, there the cycle leaves out one corner cell.
+ * The cell next to it shares its position on the cycle and the snake visits whichever of the two
+ * holds an apple, so every cell remains reachable and the snake usually fills the whole board.
+ * Once the snake covers every position on the cycle, the last free cell is the other cell of that pair;
+ * unless the head is right next to it, the snake has nowhere left to go and the game ends at all cells minus one.
+ *
+ * Cycles are stored as primitive tables (2 bits per cell when persisted) and cached on disk by grid size.
+ * Picking a direction does not allocate.
+ */
+public class HamiltonianAutopilot implements Autopilot
+{
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private static final int CACHE_MAGIC = 0x4a534843; // 'JSHC'
+    private static final int CACHE_VERSION = 1;
+
+    private final int gridX;
+    private final int gridY;
+
+    // number of positions on the cycle
+    private final int length;
+
+    // position of each cell on the cycle
+    private final int[] positions;
+
+    // direction to the next cell on the cycle, as Direction#ordinal()
+    private final byte[] successors;
+
+    /**
+     * Create instance, loading the cycle from the cache directory or building (and caching) it.
+     *
+     * @param gridX grid width of the games this autopilot will play
+     * @param gridY grid height of the games this autopilot will play
+     * @param cacheDir directory to cache cycles in, <code>null</code> to always build them
+     */
+    public HamiltonianAutopilot(int gridX, int gridY, Path cacheDir)
+    {
+        if ( gridX < 2 || gridY < 2 ) {
+            throw new IllegalArgumentException( "Grid needs to be at least 2x2 but was " + gridX + "x" + gridY );
+        }
+        this.gridX = gridX;
+        this.gridY = gridY;
+        this.length = gridX % 2 == 0 || gridY % 2 == 0 ? gridX * gridY : gridX * gridY - 1;
+        this.positions = new int[gridX * gridY];
+
+        final Path cacheFile = cacheDir == null ? null : cacheDir.resolve( "hamiltonian-" + gridX + "x" + gridY + ".bin" );
+        byte[] cached = null;
+        if ( cacheFile != null && Files.exists( cacheFile ) )
+        {
+            try
+            {
+                cached = load( cacheFile );
+                if ( ! index( cached ) ) {
+                    System.err.println( "Ignoring invalid Hamiltonian cycle cache " + cacheFile );
+                    cached = null;
+                }
+            }
+            catch( IOException e )
+            {
+                System.err.println( "Failed to read Hamiltonian cycle cache " + cacheFile + ": " + e.getMessage() );
+                cached = null;
+            }
+        }
+        if ( cached != null ) {
+            successors = cached;
+            return;
+        }
+
+        successors = build();
+        if ( ! index( successors ) ) {
+            throw new IllegalStateException( "Internal error, built an invalid cycle for " + gridX + "x" + gridY );
+        }
+        if ( cacheFile != null )
+        {
+            try {
+                save( cacheFile );
+            }
+            catch( IOException e ) {
+                System.err.println( "Failed to write Hamiltonian cycle cache " + cacheFile + ": " + e.getMessage() );
+            }
+        }
+    }
+
+    /**
+     * Returns the directory cycles get cached in by default, <code>$XDG_CACHE_HOME/jsnake</code>
+     * or <code>~/.cache/jsnake</code>.
+     *
+     * @return directory, may not exist yet
+     */
+    public static Path defaultCacheDir()
+    {
+        final String xdg = System.getenv( "XDG_CACHE_HOME" );
+        final Path base = xdg != null && ! xdg.isBlank() ? Paths.get( xdg ) : Paths.get( System.getProperty( "user.home" ), ".cache" );
+        return base.resolve( "jsnake" );
+    }
+
+    @Override
+    public Direction nextDirection(Game game)
+    {
+        if ( game.isGameOver() ) {
+            return null;
+        }
+        final Snake snake = game.getSnake();
+        final int headX = snake.headX();
+        final int headY = snake.headY();
+        final int headPos = positions[headY * gridX + headX];
+        final int tailPos = positions[snake.y( 0 ) * gridX + snake.x( 0 )];
+        // where the tail will be after the move, unless an apple gets eaten
+        final int nextTailPos = snake.size() > 1 ? positions[snake.y( 1 ) * gridX + snake.x( 1 )] : headPos;
+
+        // cycle distance to the next apple, shortcuts must not skip it
+        int appleDist = 1;
+        if ( game.getAppleCount() > 0 )
+        {
+            appleDist = Integer.MAX_VALUE;
+            for ( int i = 0, count = game.getAppleCount(); i < count; i++ ) {
+                appleDist = Math.min( appleDist, distance( headPos, positions[game.getAppleY( i ) * gridX + game.getAppleX( i )] ) );
+            }
+        }
+        final boolean shortcutsAllowed = snake.size() * 2 < length;
+
+        final Direction reversed = game.getDirection().reversed();
+        Direction best = null;
+        int bestDist = 0;
+        boolean bestIsApple = false;
+        Direction fallback = null;
+        for ( Direction d : DIRECTIONS )
+        {
+            final int x = headX + d.dx;
+            final int y = headY + d.dy;
+            if ( d == reversed || game.isOutsidePlayingField( x, y ) || snake.isBodyPartAt( x, y ) ) {
+                continue;
+            }
+            fallback = d;
+
+            final boolean apple = game.isAppleAt( x, y );
+            final int dist = distance( headPos, positions[y * gridX + x] );
+            // moving past the tail would break the snake's order along the cycle
+            if ( dist >= distance( headPos, apple ? tailPos : nextTailPos ) ) {
+                continue;
+            }
+            if ( dist > 1 )
+            {
+                if ( ! shortcutsAllowed || dist > appleDist || (dist == appleDist && ! apple) ) {
+                    continue;
+                }
+                // keep the snake, including the cells skipped by the shortcut, within half the cycle
+                final int span = distance( apple ? tailPos : nextTailPos, positions[y * gridX + x] ) + 1;
+                if ( span * 2 > length ) {
+                    continue;
+                }
+            }
+            if ( dist > bestDist || (dist == bestDist && apple && ! bestIsApple) )
+            {
+                best = d;
+                bestDist = dist;
+                bestIsApple = apple;
+            }
+        }
+        // only happens once the snake can no longer follow the cycle, postpone death
+        return best != null ? best : fallback;
+    }
+
+    // number of steps along the cycle from one position to another, a full cycle if they are the same
+    private int distance(int fromPos, int toPos)
+    {
+        final int dist = toPos - fromPos;
+        return dist > 0 ? dist : dist + length;
+    }
+
+    /*
+     * Builds the cycle as a zig-zag through all rows but the leftmost column, returning
+     * to the start along that column:
+     *
+     * S > > >
+     * ^ < < v
+     * ^ > > v
+     * ^ < < <
+     *
+     * This requires an even number of rows, grids with an even number of columns only are transposed.
+     * If both are odd, the last two rows get traversed column by column, leaving out the bottom-right cell.
+     */
+    private byte[] build()
+    {
+        final boolean transposed = gridY % 2 != 0 && gridX % 2 == 0;
+        final int w = transposed ? gridY : gridX;
+        final int h = transposed ? gridX : gridY;
+
+        // cells in the (possibly transposed) grid, y * w + x
+        final int[] path = new int[length];
+        int i = 0;
+        for ( int x = 0; x < w; x++ ) {
+            path[i++] = x;
+        }
+        final int zigZagRows = h % 2 == 0 ? h : h - 2;
+        for ( int y = 1; y < zigZagRows; y++ )
+        {
+            for ( int x = 1; x < w; x++ ) {
+                path[i++] = y * w + (y % 2 == 0 ? x : w - x);
+            }
+        }
+        if ( h % 2 != 0 )
+        {
+            path[i++] = (h - 2) * w + w - 1;
+            for ( int x = w - 2; x > 0; x-- )
+            {
+                final boolean down = (w - 2 - x) % 2 == 0;
+                path[i++] = (down ? h - 2 : h - 1) * w + x;
+                path[i++] = (down ? h - 1 : h - 2) * w + x;
+            }
+            path[i++] = (h - 1) * w;
+        }
+        for ( int y = h % 2 == 0 ? h - 1 : h - 2; y > 0; y-- ) {
+            path[i++] = y * w;
+        }
+        if ( transposed )
+        {
+            for ( int j = 0; j < length; j++ ) {
+                path[j] = (path[j] % w) * gridX + path[j] / w;
+            }
+        }
+
+        final byte[] result = new byte[gridX * gridY];
+        for ( int j = 0; j < length; j++ ) {
+            result[path[j]] = (byte) direction( path[j], path[(j + 1) % length] ).ordinal();
+        }
+        if ( length < gridX * gridY ) {
+            // left-out corner cell, continues where the cell left of it continues
+            result[gridX * gridY - 1] = (byte) Direction.LEFT.ordinal();
+        }
+        return result;
+    }
+
+    private Direction direction(int fromCell, int toCell)
+    {
+        for ( Direction d : DIRECTIONS )
+        {
+            if ( fromCell % gridX + d.dx == toCell % gridX && fromCell / gridX + d.dy == toCell / gridX ) {
+                return d;
+            }
+        }
+        throw new IllegalArgumentException( "Cells " + fromCell + " and " + toCell + " are not adjacent" );
+    }
+
+    /*
+     * Walks the cycle starting at the top-left cell, filling in the positions table.
+     * Returns false if the successors do not form a cycle of the expected length
+     * (plus the left-out cell on grids with an odd number of cells).
+     */
+    private boolean index(byte[] succ)
+    {
+        Arrays.fill( positions, -1 );
+        int cell = 0;
+        for ( int pos = 0; pos < length; pos++ )
+        {
+            if ( positions[cell] != -1 ) {
+                return false;
+            }
+            positions[cell] = pos;
+            cell = next( cell, succ );
+            if ( cell == -1 ) {
+                return false;
+            }
+        }
+        if ( cell != 0 ) {
+            return false;
+        }
+        if ( length == positions.length ) {
+            return true;
+        }
+        // left-out cell must be interchangeable with the cell at the position before its successor
+        final int left = positions.length - 1;
+        final int next = next( left, succ );
+        if ( positions[left] != -1 || next == -1 || positions[next] == -1 ) {
+            return false;
+        }
+        final int pos = Math.floorMod( positions[next] - 1, length );
+        final int pred = cellAt( Math.floorMod( pos - 1, length ) );
+        if ( pred == -1 || ! isAdjacent( pred, left ) ) {
+            return false;
+        }
+        positions[left] = pos;
+        return true;
+    }
+
+    private int cellAt(int pos)
+    {
+        for ( int cell = 0; cell < positions.length; cell++ )
+        {
+            if ( positions[cell] == pos ) {
+                return cell;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isAdjacent(int a, int b)
+    {
+        return Math.abs( a % gridX - b % gridX ) + Math.abs( a / gridX - b / gridX ) == 1;
+    }
+
+    // next cell on the cycle, -1 if the successor points outside of the grid
+    private int next(int cell, byte[] succ)
+    {
+        if ( succ[cell] < 0 || succ[cell] >= DIRECTIONS.length ) {
+            return -1;
+        }
+        final Direction d = DIRECTIONS[succ[cell]];
+        final int x = cell % gridX + d.dx;
+        final int y = cell / gridX + d.dy;
+        return x < 0 || y < 0 || x >= gridX || y >= gridY ? -1 : y * gridX + x;
+    }
+
+    private byte[] load(Path file) throws IOException
+    {
+        try ( DataInputStream in = new DataInputStream( Files.newInputStream( file ) ) )
+        {
+            if ( in.readInt() != CACHE_MAGIC || in.readInt() != CACHE_VERSION || in.readInt() != gridX || in.readInt() != gridY ) {
+                throw new IOException( "Not a cycle for " + gridX + "x" + gridY );
+            }
+            final byte[] packed = new byte[(gridX * gridY + 3) / 4];
+            in.readFully( packed );
+            if ( in.read() != -1 ) {
+                throw new IOException( "Trailing data" );
+            }
+            final byte[] result = new byte[gridX * gridY];
+            for ( int cell = 0; cell < result.length; cell++ ) {
+                result[cell] = (byte) ((packed[cell >> 2] >> ((cell & 3) * 2)) & 3);
+            }
+            return result;
+        }
+        catch( EOFException e )
+        {
+            throw new IOException( "File is truncated", e );
+        }
+    }
+
+    private void save(Path file) throws IOException
+    {
+        final byte[] packed = new byte[(successors.length + 3) / 4];
+        for ( int cell = 0; cell < successors.length; cell++ ) {
+            packed[cell >> 2] |= (byte) (successors[cell] << ((cell & 3) * 2));
+        }
+        Files.createDirectories( file.getParent() );
+        // write to a temporary file first so concurrent readers never see a partial cycle
+        final Path tmp = Files.createTempFile( file.getParent(), file.getFileName().toString(), ".tmp" );
+        try
+        {
+            try ( DataOutputStream out = new DataOutputStream( Files.newOutputStream( tmp ) ) )
+            {
+                out.writeInt( CACHE_MAGIC );
+                out.writeInt( CACHE_VERSION );
+                out.writeInt( gridX );
+                out.writeInt( gridY );
+                out.write( packed );
+            }
+            Files.move( tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        }
+        finally {
+            Files.deleteIfExists( tmp );
+        }
+    }
+
+    /**
+     * Plays games until the board is full or the snake dies and prints the outcome.
+     *
+     * Usage: <code>HamiltonianAutopilot [grid width] [grid height] [games]</code>
+     *
+     * @param args
+     */
+    public static void main(String[] args)
+    {
+        final int gridX = args.length > 0 ? Integer.parseInt( args[0] ) : 20;
+        final int gridY = args.length > 1 ? Integer.parseInt( args[1] ) : gridX;
+        final int games = args.length > 2 ? Integer.parseInt( args[2] ) : 10;
+
+        final long start = System.nanoTime();
+        final HamiltonianAutopilot autopilot = new HamiltonianAutopilot( gridX, gridY, defaultCacheDir() );
+        System.out.printf( "Cycle for %dx%d ready after %.1f ms%n", gridX, gridY, (System.nanoTime() - start) / 1e6 );
+
+        final Game game = new Game( gridX, gridY, 0 );
+        int failed = 0;
+        for ( int i = 0; i < games; i++ )
+        {
+            game.setSeed( i );
+            game.reset();
+            long moves = 0;
+            while ( ! game.isGameOver() )
+            {
+                game.advance( autopilot.nextDirection( game ) );
+                moves++;
+            }
+            final int size = game.getSnake().size();
+            final boolean complete = size >= autopilot.length;
+            if ( ! complete ) {
+                failed++;
+            }
+            System.out.printf( "Game %d: snake length %d of %d cells after %d moves%s%n", i, size, gridX * gridY, moves, complete ? "" : " (died)" );
+        }
+        if ( failed > 0 ) {
+            System.err.println( "FAILED: " + failed + " of " + games + " games did not fill the cycle" );
+            System.exit( 1 );
+        }
+    }
+}
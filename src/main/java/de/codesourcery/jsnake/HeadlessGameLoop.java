@@ -0,0 +1,88 @@
+package de.codesourcery.jsnake;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Runs the game loop without a display, for benchmarks and tests.
+ *
+ * Every tick a simulated input device feeds button presses through an input queue (like the gamepad
+ * does in {@link Main}), the game gets ticked and rendered into an off-screen image.
+ * The Graphics used for rendering is created once, so a steady-state tick does not allocate.
+ */
+final class HeadlessGameLoop implements AutoCloseable
+{
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private static final Color BACKGROUND = new Color( 0xee, 0xee, 0xee );
+
+    private final BufferedImage image;
+    private final Graphics2D graphics;
+    private final BlockingQueue<GamepadEventReader.ButtonPress> inputQueue = new ArrayBlockingQueue<>( 16 );
+    private final Random input;
+
+    /**
+     * Create instance.
+     *
+     * @param width width of the image to render to
+     * @param height height of the image to render to
+     * @param inputSeed seed for the simulated input device
+     */
+    HeadlessGameLoop(int width, int height, long inputSeed)
+    {
+        image = new BufferedImage( width, height, BufferedImage.TYPE_INT_RGB );
+        graphics = image.createGraphics();
+        graphics.setBackground( BACKGROUND );
+        input = new Random( inputSeed );
+    }
+
+    /**
+     * Runs one tick: simulated input, game tick and rendering.
+     *
+     * @param game game to tick
+     * @param renderer renderer to use
+     */
+    void tick(Game game, Renderer renderer)
+    {
+        if ( (game.getFrameCount() + 1) % game.ticksTillMovement() == 0 ) {
+            //noinspection ResultOfMethodCallIgnored
+            inputQueue.offer( GamepadEventReader.ButtonPress.of( safeButton( game ) ) );
+        }
+        final GamepadEventReader.Button pressed = GamepadEventReader.drainPresses( inputQueue );
+        game.tick( pressed == null ? null : pressed.direction() );
+
+        renderer.render( game, game.movementProgress( 0.5f ), graphics, image.getWidth(), image.getHeight() );
+        // make sure rendering actually happened, unlike getRGB() this does not allocate
+        image.getRaster().getSample( 0, 0, 0 );
+    }
+
+    // random direction that does not kill the snake right away, if there is any
+    private GamepadEventReader.Button safeButton(Game game)
+    {
+        final int headX = game.getSnake().headX();
+        final int headY = game.getSnake().headY();
+        Direction result = game.getDirection();
+        for ( int i = 0, offset = input.nextInt( DIRECTIONS.length ); i < DIRECTIONS.length; i++ )
+        {
+            final Direction d = DIRECTIONS[(offset + i) % DIRECTIONS.length];
+            final int x = headX + d.dx;
+            final int y = headY + d.dy;
+            if ( d != game.getDirection().reversed() && ! game.isOutsidePlayingField( x, y ) && ! game.getSnake().isBodyPartAt( x, y ) )
+            {
+                result = d;
+                break;
+            }
+        }
+        return GamepadEventReader.Button.of( result );
+    }
+
+    @Override
+    public void close()
+    {
+        graphics.dispose();
+    }
+}
@@ -1,28 +1,24 @@
 package de.codesourcery.jsnake;
 
-import java.awt.Color;
 import java.awt.Dimension;
-import java.awt.Font;
+import java.awt.DisplayMode;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsDevice;
+import java.awt.GraphicsEnvironment;
 import java.awt.HeadlessException;
-import java.awt.Image;
 import java.awt.Toolkit;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
-import java.awt.geom.Rectangle2D;
-import java.awt.image.BufferedImage;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.IOException;
-import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
-import java.util.HashSet;
-import java.util.Optional;
-import java.util.Random;
-import java.util.Set;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import javax.imageio.ImageIO;
+import java.util.concurrent.ForkJoinPool;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
@@ -35,70 +31,95 @@ public class Main extends JFrame
 
     private static final boolean USE_GAME_CONTROLLER = true;
 
-    private static final Color SNAKE_COLOR = Color.RED;
-    private static final int APPLES_PER_LEVEL = 10;
+    // how to read the game controller, 'channel' (default) or 'epoll', see GamepadEventReader.Backend
+    private static final String EVDEV_BACKEND = System.getProperty( "jsnake.evdev", "channel" );
 
-    private static final String APPLE_PATH = "/apple.png";
+    // fixed simulation rate (60 ticks per second), independent of the rendering frame rate
+    private static final long TICK_NANOS = 16_000_000L;
 
-    private record Apple(int x, int y) {}
+    // max. number of simulation ticks to catch up on per rendered frame
+    private static final int MAX_TICKS_PER_FRAME = 5;
 
-    private final Set<Apple> apples = new HashSet<>();
+    // rendering frame rate, 0 means 'use display refresh rate'
+    private static final int RENDER_FPS = Integer.getInteger( "jsnake.fps", 0 );
 
-    private boolean gameOver;
+    // file to publish the game state to, see SharedMemoryExporter
+    private static final String SHARED_MEMORY_FILE = System.getProperty( "jsnake.shm" );
 
-    private final Random rnd = new Random( 0xdeadbeefL );
+    // loopback port to broadcast the game to spectators on, see SpectatorServer
+    private static final Integer SPECTATOR_PORT = Integer.getInteger( "jsnake.spectatorPort" );
 
-    private int level = 1;
+    // render mode, 'java2d' (default) or 'framebuffer', see FramebufferRenderer
+    private static final String RENDER_MODE = System.getProperty( "jsnake.render", "java2d" );
 
-    private int applesLeft;
-    private int applesEaten;
+    // framebuffer pixels per cell in 'framebuffer' render mode
+    private static final int FRAMEBUFFER_PIXELS_PER_CELL = 8;
 
-    private long frameCount= 0;
-    private Direction direction = Direction.UP;
+    // autopilot to use ('mcts' or 'hamiltonian'), human player if not set
+    private static final String AUTOPILOT = System.getProperty( "jsnake.autopilot" );
 
-    private final BlockingQueue<GamepadEventReader.ButtonPress> inputQueue = new LinkedBlockingQueue<>();
+    // max. time the autopilot may spend on a decision, needs to stay well below TICK_NANOS
+    private static final long AUTOPILOT_BUDGET_NANOS = 8_000_000L;
 
-    private final Snake snake = new Snake();
+    // button presses not yet consumed by a tick, presses beyond the capacity get dropped
+    private static final int INPUT_QUEUE_CAPACITY = 32;
 
-    private final JPanel panel = new JPanel() {
+    private static final StartupTimer STARTUP = new StartupTimer();
 
-        private float dx, dy;
+    private final Game game = new Game( GRID_X, GRID_Y, 0xdeadbeefL );
 
-        private BufferedImage apple;
+    // simulation time not yet consumed by a tick, used to interpolate between ticks
+    private long accumulatedNanos;
+    private long lastFrameNanos;
 
-        private BufferedImage getApple(int width,int height)
-        {
-            if ( apple == null || ( apple.getWidth() != width && apple.getHeight() != height) )
-            {
-                apple = load( APPLE_PATH, width, height );
-            }
-            return apple;
-        }
+    private final BlockingQueue<GamepadEventReader.ButtonPress> inputQueue = new ArrayBlockingQueue<>( INPUT_QUEUE_CAPACITY );
+
+    private final SharedMemoryExporter sharedMemory;
+
+    private final SpectatorServer spectatorServer;
+
+    private final Autopilot autopilot = createAutopilot();
+
+    // game loop timer, stopped while there is nothing to simulate or render
+    private Timer timer;
+
+    // accessed on the EDT only
+    private boolean paused;
+    private boolean iconified;
+
+    // whether the game loop is parked, read by input threads to decide whether a wake-up is needed
+    private volatile boolean parked;
+
+    // whether steering input comes from the gamepad, cleared if opening it fails so the arrow keys take over
+    private volatile boolean gamepadAvailable = USE_GAME_CONTROLLER;
+
+    // set once the gamepad has been opened, closed when the window closes
+    private volatile GamepadEventReader gamepad;
+
+    // visual state of the last rendered frame, used to skip frames that would look identical
+    private long lastPaintedMovement = -1;
+    private int lastPaintedProgress = -1;
+    private boolean lastPaintedGameOver;
+
+    private boolean firstFramePainted;
+
+    private final JPanel panel = new JPanel() {
+
+        private final Renderer renderer = createRenderer();
 
         {
             setDoubleBuffered( true );
-            if ( USE_GAME_CONTROLLER )
+            addKeyListener( new KeyAdapter()
             {
-                try
+                @Override
+                public void keyPressed(KeyEvent e)
                 {
-                    GamepadEventReader.registerListener( btnAction -> {
-                        if ( btnAction instanceof GamepadEventReader.ButtonPress press ) {
-                            //noinspection ResultOfMethodCallIgnored
-                            inputQueue.offer( press );
-                        }
-                    });
-                }
-                catch( IOException e )
-                {
-                    throw new RuntimeException( e );
-                }
-            }
-            else
-            {
-                addKeyListener( new KeyAdapter()
-                {
-                    @Override
-                    public void keyPressed(KeyEvent e)
+                    if ( e.getKeyCode() == KeyEvent.VK_P || e.getKeyCode() == KeyEvent.VK_PAUSE )
+                    {
+                        setPaused( ! paused );
+                        return;
+                    }
+                    if ( ! gamepadAvailable )
                     {
                         GamepadEventReader.Button tmp = switch( e.getKeyCode() )
                         {
@@ -110,11 +131,12 @@ public class Main extends JFrame
                         };
                         if ( tmp != null )
                         {
-                            inputQueue.offer( new GamepadEventReader.ButtonPress( tmp ) );
+                            inputQueue.offer( GamepadEventReader.ButtonPress.of( tmp ) );
+                            wakeUp();
                         }
                     }
-                } );
-            }
+                }
+            } );
             setFocusable( true );
             setRequestFocusEnabled( true );
             requestFocus();
@@ -123,211 +145,157 @@ public class Main extends JFrame
         @Override
         protected void paintComponent(Graphics gfx)
         {
-            final Graphics2D g = (Graphics2D) gfx;
-            g.clearRect( 0, 0, getWidth(), getHeight() );
+            renderer.render( game, movementProgress(), (Graphics2D) gfx, getWidth(), getHeight() );
+            if ( ! firstFramePainted )
+            {
+                firstFramePainted = true;
+                STARTUP.firstFrame( "first paint" );
+            }
+        }
+    };
 
-            dx = getWidth() / (float) GRID_X;
-            dy = getHeight() / (float) GRID_Y;
+    private float movementProgress()
+    {
+        final float tickFraction = Math.min( 1f, accumulatedNanos / (float) TICK_NANOS );
+        return game.movementProgress( tickFraction );
+    }
 
-            final BufferedImage apple = getApple( (int) Math.ceil( dx ), (int) Math.ceil( dy ) );
+    private void reset()
+    {
+        game.reset();
+        accumulatedNanos = 0;
+        inputQueue.clear();
+    }
 
-            apples.forEach( a -> renderImage( a.x, a.y, apple, g) );
+    public Main() throws HeadlessException, IOException
+    {
+        super( "JSnake" );
 
-            // render snake
-            final int tickCnt = ticksTillMovement();
-            long cnt = frameCount / tickCnt;
-            long delta = frameCount - cnt * tickCnt;
-            float perc = gameOver ? 1 : delta / (float) tickCnt;
+        openGamepad();
 
-            g.setColor( Color.RED );
-            for ( int i = 0, snakeSize = snake.size(); i < snakeSize; i++ )
-            {
-                final boolean isTail = i == 0;
-                final boolean isHead = (i == snake.size() - 1);
+        sharedMemory = SHARED_MEMORY_FILE == null ? null : new SharedMemoryExporter( Paths.get( SHARED_MEMORY_FILE ), GRID_X, GRID_Y );
+        spectatorServer = SPECTATOR_PORT == null ? null : new SpectatorServer( SPECTATOR_PORT );
+        game.setListener( spectatorServer );
 
-                final Snake.BodyPart current = snake.get( i );
+        getContentPane().add( panel );
 
-                if ( isHead ) {
-                    renderHead( SNAKE_COLOR, current, perc, g );
-                }
-                else if ( isTail )
-                {
-                    final Direction nextDirection = snake.get( i + 1 ).direction();
-                    if ( current.direction() != nextDirection )
-                    {
-                        renderTail( SNAKE_COLOR, current, nextDirection, perc, g );
-                    }
-                    else
-                    {
-                        renderTail( SNAKE_COLOR, current, perc, g );
-                    }
-                }
-                else
-                {
-                    final int cx = round( current.x() * dx );
-                    final int cy = round( current.y() * dy );
-                    g.fillRect( cx, cy, round( dx ), round( dy ) );
-                }
+        addWindowListener( new WindowAdapter()
+        {
+            @Override
+            public void windowClosing(WindowEvent e)
+            {
+                close();
             }
 
-            final Font fatFont2 = g.getFont().deriveFont( 16f );
-            g.setFont( fatFont2 );
-            g.setColor( Color.BLUE );
-            g.drawString( "Apples eaten: " + applesEaten , 15, 25 );
-
-            if ( gameOver ) {
-                g.setColor( Color.RED );
-                final Font fatFont = g.getFont().deriveFont( 32f );
-                g.setFont( fatFont );
-                final String txt = "*** GAME OVER ***";
-
-                final Rectangle2D bounds = g.getFont().getStringBounds( txt, g.getFontMetrics().getFontRenderContext() );
-                final float cx = (float) (getWidth()/2.0f - bounds.getWidth()/2.0f);
-                final float cy = (float) (getHeight()/2.0f - bounds.getHeight()/2.0f);
-                g.drawString( txt, round( cx ), round( cy ) );
+            @Override
+            public void windowIconified(WindowEvent e)
+            {
+                iconified = true;
+                updateScheduling();
             }
-        }
-
-        private void renderImage(int x, int y, BufferedImage image, Graphics g) {
-            final int cx = round( x * dx );
-            final int cy = round( y * dy );
-            g.drawImage( image, cx, cy, null );
-        }
-
-        private void renderTail(Color color, Snake.BodyPart s, float fillFactor, Graphics2D g) {
-            renderTail( color, s, s.direction(), fillFactor, g );
-        }
-
-        private void renderTail(Color color, Snake.BodyPart s, Direction dir, float fillFactor, Graphics2D g) {
-            float perc = Math.max( 0.01f, Math.min( 1.0f, fillFactor ) );
-
-            final float topLeftX = s.x() * dx;
-            final float topLeftY = s.y() * dy;
 
-            g.setColor( color );
-            switch(dir) {
-                case RIGHT -> g.fillRect( round(topLeftX+perc*dx)   , round(topLeftY)           , round(dx-dx*perc), round(dy) );
-                case LEFT  -> g.fillRect( round(topLeftX), round(topLeftY)           , round(dx-dx*perc), round(dy) );
-                case UP    -> g.fillRect( round(topLeftX)           , round(topLeftY), round(dx)     , round(dy - dy*perc) );
-                case DOWN  -> g.fillRect( round(topLeftX)           , round(topLeftY +dy*perc)  , round(dx)     , round(dy - dy*perc) );
+            @Override
+            public void windowDeiconified(WindowEvent e)
+            {
+                iconified = false;
+                updateScheduling();
             }
-        }
-
-        private void renderHead(Color color, Snake.BodyPart s, float fillFactor, Graphics2D g) {
-            float perc = Math.max( 0.01f, Math.min( 1.0f, fillFactor ) );
-
-            final float topLeftX = s.x() * dx;
-            final float topLeftY = s.y() * dy;
+        } );
+        STARTUP.mark( "frame construction" );
 
-            switch(s.direction()) {
-                case RIGHT -> fillHeadRect( color, s.direction(), round(topLeftX)           , round(topLeftY)           , round(dx*perc), round(dy), g );
-                case LEFT  -> fillHeadRect( color, s.direction(), round(topLeftX+dx-dx*perc), round(topLeftY)           , round(dx*perc), round(dy), g);
-                case UP    -> fillHeadRect( color, s.direction(), round(topLeftX)           , round(topLeftY+dy-dy*perc), round(dx)     , round(dy*perc), g );
-                case DOWN  -> fillHeadRect( color, s.direction(), round(topLeftX)           , round(topLeftY)  , round(dx)     , round(dy*perc), g);
-            };
-        }
+        reset();
+        STARTUP.mark( "game reset" );
 
-        private void fillHeadRect(Color color, Direction dir, int x , int y , int width, int height, Graphics g) {
-            g.setColor( color );
+        setDefaultCloseOperation( JFrame.EXIT_ON_CLOSE );
 
-            g.fillRect( x, y, width, height );
-            g.setColor( Color.BLACK );
+        setSize( new Dimension( 640, 480 ) );
+        setLocationRelativeTo( null );
+        setVisible( true );
+        STARTUP.mark( "window realization" );
+    }
 
-            if ( dir == Direction.RIGHT )
-            {
-                g.drawRect( round(x - dx + width), y, round(dx), round(dy) );
-            }
-            else if ( dir == Direction.DOWN )
+    // opens the gamepad on a background thread, so the first frame never waits for the input device;
+    // falls back to the keyboard if that fails
+    private void openGamepad()
+    {
+        if ( ! USE_GAME_CONTROLLER ) {
+            return;
+        }
+        final long start = STARTUP.begin();
+        // a dedicated thread, the common pool is busy decoding the apple image and running the autopilot
+        final Thread t = new Thread( () -> {
+            try
             {
-                g.drawRect( x, round(y + height - dy -1 ), round(dx), round(dy) );
+                gamepad = GamepadEventReader.registerListener( btnAction -> {
+                    if ( btnAction instanceof GamepadEventReader.ButtonPress press ) {
+                        //noinspection ResultOfMethodCallIgnored
+                        inputQueue.offer( press );
+                        wakeUp();
+                    }
+                }, GamepadEventReader.AnalogConfig.DEFAULT, evdevBackend() );
+                STARTUP.end( "gamepad open", start );
             }
-            else
+            catch( IOException | RuntimeException e )
             {
-                g.drawRect( x, y, round(dx), round(dy) );
+                gamepadAvailable = false;
+                STARTUP.end( "gamepad open (failed)", start );
+                System.err.println( "Failed to open game controller, using the arrow keys instead" );
+                e.printStackTrace();
             }
-        }
-    };
-
-    private static int round(float x) {
-        return (int) Math.ceil(x);
-    }
-
-    private int ticksTillMovement() {
-        return Math.max( 1, Math.round( 30 - (level - 1) * 1.5f ) );
+        }, "gamepad-open" );
+        t.setDaemon( true );
+        t.start();
     }
 
-    private void placeApples() {
-
-        int count = APPLES_PER_LEVEL;
-        applesLeft = count;
-        apples.clear();
-        while( count > 0 ) {
-            int x = rnd.nextInt( GRID_X );
-            int y = rnd.nextInt( GRID_Y );
-            Apple apple = new Apple( x, y );
-            if ( ! snake.isBodyPartAt( x, y ) && apples.add(apple) ) {
-                count--;
-            }
+    // releases the input device, the game state exporter and the spectator server, invoked on the EDT when the window is closing
+    private void close()
+    {
+        if ( timer != null )
+        {
+            // nothing may publish to the exporters once they are closed, updateScheduling() ignores wake-ups from now on
+            timer.stop();
+            timer = null;
         }
+        closeQuietly( gamepad );
+        closeQuietly( sharedMemory );
+        closeQuietly( spectatorServer );
     }
 
-    private void reset()
+    private static void closeQuietly(AutoCloseable resource)
     {
-        this.snake.clear();
-        this.level = 1;
-        this.gameOver = false;
-        this.frameCount = 0;
-        this.applesEaten = 0;
-
-        placeApples();
-
-        // place snake
-        direction = Direction.UP;
-        while( true )
+        if ( resource != null )
         {
-            final int startX = rnd.nextInt( 2, GRID_X - 3 );
-            final int startY = rnd.nextInt( 2, GRID_Y - 3 );
-
-            final Snake.BodyPart s1 = new Snake.BodyPart( startX, startY, Direction.LEFT );
-            final Snake.BodyPart s2 = new Snake.BodyPart( startX - 1, startY, direction );
-            if ( isNoAppleAt( s1 ) && isNoAppleAt( s2 ) )
+            try
             {
-                snake.add( s1 ); /// tail
-                snake.add( s2 ); /// head
-                break;
+                resource.close();
+            }
+            catch( Exception e )
+            {
+                e.printStackTrace();
             }
         }
-
-        inputQueue.clear();
-    }
-
-    private boolean isNoAppleAt(Snake.BodyPart s) {
-        return isNoAppleAt( s.x(), s.y() );
     }
 
-    private boolean isNoAppleAt(int x, int y ) {
-        return apples.stream().noneMatch( apple -> apple.x == x && apple.y == y );
-    }
-
-    public Main() throws HeadlessException
+    private static GamepadEventReader.Backend evdevBackend()
     {
-        super( "JSnake" );
-
-        reset();
-
-        getContentPane().add( panel );
-
-        setDefaultCloseOperation( JFrame.EXIT_ON_CLOSE );
-
-        setSize( new Dimension( 640, 480 ) );
-        setLocationRelativeTo( null );
-        setVisible( true );
+        return switch( EVDEV_BACKEND )
+        {
+            case "channel" -> GamepadEventReader.Backend.CHANNEL;
+            case "epoll" -> GamepadEventReader.Backend.EPOLL;
+            default -> throw new IllegalArgumentException( "Unknown evdev backend: " + EVDEV_BACKEND );
+        };
     }
 
     public static void main(String[] args) throws InterruptedException, InvocationTargetException, IOException
     {
         System.setProperty("sun.java2d.opengl", "true");
+
+        // decode assets while the window is being set up
+        final long decodeStart = STARTUP.begin();
+        GameRenderer.preloadApple().whenComplete( (_, _) -> STARTUP.end( "apple decode", decodeStart ) );
+
         SwingUtilities.invokeAndWait( () -> {
+            STARTUP.mark( "AWT startup" );
             try
             {
                 new Main().run();
@@ -340,127 +308,190 @@ public class Main extends JFrame
     }
 
     private void doPaint() {
+
+        // skip frames that would look exactly like the last one
+        final int tickCnt = game.ticksTillMovement();
+        final long movement = game.getFrameCount() - game.getFrameCount() % tickCnt;
+        final float cellSize = Math.max( panel.getWidth() / (float) game.gridX, panel.getHeight() / (float) game.gridY );
+        final int progress = game.isGameOver() ? 0 : Math.round( movementProgress() * cellSize );
+        if ( movement == lastPaintedMovement && progress == lastPaintedProgress && game.isGameOver() == lastPaintedGameOver ) {
+            return;
+        }
+        lastPaintedMovement = movement;
+        lastPaintedProgress = progress;
+        lastPaintedGameOver = game.isGameOver();
+
         panel.repaint();
         Toolkit.getDefaultToolkit().sync();
     }
 
-    private static BufferedImage load(String classPath, int width, int height) {
-        final InputStream in = Main.class.getResourceAsStream( classPath );
-        if ( in == null ) {
-            throw new RuntimeException( "Failed to load classpath:"+classPath );
+    private void setPaused(boolean paused)
+    {
+        this.paused = paused;
+        updateScheduling();
+    }
+
+    /**
+     * Wakes up the game loop if it is parked, may be called from any thread.
+     */
+    private void wakeUp()
+    {
+        if ( parked ) {
+            SwingUtilities.invokeLater( this::updateScheduling );
         }
-        try
+    }
+
+    // there is nothing to simulate or show while game over, paused or minimized; apart from
+    // a restart on game over, only input or window events can change this.
+    // Commands from the shared memory file are polled by the game loop and cannot wake it up,
+    // so it keeps running on game over if there is one.
+    private boolean isIdle()
+    {
+        return paused || iconified || (game.isGameOver() && inputQueue.isEmpty() && sharedMemory == null);
+    }
+
+    /**
+     * Parks or resumes the game loop, depending on whether it is idle. Must be called on the EDT.
+     */
+    private void updateScheduling()
+    {
+        if ( timer == null ) {
+            return;
+        }
+        if ( isIdle() )
         {
-            BufferedImage img = ImageIO.read( in );
-            final Image scaled = img.getScaledInstance( width, height, BufferedImage.SCALE_SMOOTH );
-            if ( !(scaled instanceof BufferedImage buf ) ) {
-                BufferedImage result = new BufferedImage( width, height, img.getType() );
-                final Graphics2D gfx = result.createGraphics();
-                gfx.drawImage( scaled, 0, 0, null );
-                gfx.dispose();
-                return result;
+            if ( ! parked )
+            {
+                parked = true;
+                timer.stop();
+            }
+            // input may have arrived between the check and setting the flag
+            if ( ! isIdle() ) {
+                updateScheduling();
             }
-            return buf;
         }
-        catch( IOException e )
+        else if ( parked )
         {
-            throw new RuntimeException( e );
+            parked = false;
+            // do not simulate the time spent parked
+            lastFrameNanos = System.nanoTime();
+            timer.start();
         }
     }
 
+    private static int renderFps()
+    {
+        if ( RENDER_FPS > 0 ) {
+            return RENDER_FPS;
+        }
+        if ( ! GraphicsEnvironment.isHeadless() )
+        {
+            final GraphicsDevice device = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice();
+            final int rate = device.getDisplayMode().getRefreshRate();
+            if ( rate != DisplayMode.REFRESH_RATE_UNKNOWN && rate > 0 ) {
+                return rate;
+            }
+        }
+        return 60;
+    }
+
     private GamepadEventReader.Button drainInput() {
+        return GamepadEventReader.drainPresses( inputQueue );
+    }
 
-        GamepadEventReader.Button last = null;
-        while ( true ) {
-            final GamepadEventReader.ButtonPress head = inputQueue.poll();
-            if ( head == null ) {
-                break;
+    private void tick()
+    {
+        if ( sharedMemory != null )
+        {
+            final Direction command = sharedMemory.pollCommand();
+            if ( command != null ) {
+                inputQueue.offer( GamepadEventReader.ButtonPress.of( GamepadEventReader.Button.of( command ) ) );
             }
-            last = head.button;
         }
-        return last;
+
+        simulate();
+
+        if ( sharedMemory != null ) {
+            sharedMemory.publish( game );
+        }
+        if ( spectatorServer != null ) {
+            spectatorServer.endTick( game );
+        }
     }
 
-    private void run() throws IOException
+    private static Renderer createRenderer()
     {
-        final ActionListener gameLoop = _ -> {
+        return switch( RENDER_MODE )
+        {
+            case "java2d" -> new GameRenderer();
+            case "framebuffer" -> new FramebufferRenderer( FRAMEBUFFER_PIXELS_PER_CELL );
+            default -> throw new IllegalArgumentException( "Unknown render mode: " + RENDER_MODE );
+        };
+    }
 
-            if ( gameOver )
-            {
-                if ( drainInput() != null )
-                {
-                    reset();
-                }
-                return;
-            }
+    private static Autopilot createAutopilot()
+    {
+        if ( AUTOPILOT == null ) {
+            return null;
+        }
+        return switch( AUTOPILOT )
+        {
+            case "mcts" -> new MonteCarloAutopilot( GRID_X, GRID_Y, AUTOPILOT_BUDGET_NANOS, 30 * 40, ForkJoinPool.commonPool() );
+            case "hamiltonian" -> new HamiltonianAutopilot( GRID_X, GRID_Y, HamiltonianAutopilot.defaultCacheDir() );
+            default -> throw new IllegalArgumentException( "Unknown autopilot: " + AUTOPILOT );
+        };
+    }
 
-            Direction newDirection = switch( drainInput() )
+    private void simulate()
+    {
+        if ( game.isGameOver() )
+        {
+            if ( drainInput() != null )
             {
-                case UP -> Direction.UP;
-                case DOWN -> Direction.DOWN;
-                case LEFT -> Direction.LEFT;
-                case RIGHT -> Direction.RIGHT;
-                case null -> null;
-            };
-
-            // prevent impossible direction changes
-            if ( newDirection != null && newDirection != direction.reversed() ) {
-                direction = newDirection;
+                reset();
             }
+            return;
+        }
 
-            if ( (++frameCount % ticksTillMovement() != 0) )
-            {
-                doPaint();
-                return;
-            }
+        final GamepadEventReader.Button pressed = drainInput();
+        Direction newDirection = pressed == null ? null : pressed.direction();
 
-            // advance snake in movement direction
-            final int newX = snake.head().x() + direction.dx;
-            final int newY = snake.head().y() + direction.dy;
+        if ( autopilot != null && (game.getFrameCount() + 1) % game.ticksTillMovement() == 0 ) {
+            newDirection = autopilot.nextDirection( game );
+        }
 
-            // check collisions
-            if ( isOutsidePlayingField( newX, newY ) )
-            {
-                gameOver = true;
-                inputQueue.clear();
-                doPaint();
-                return;
-            }
+        game.tick( newDirection );
+        if ( game.isGameOver() )
+        {
+            inputQueue.clear();
+        }
+    }
 
-            final boolean hitMyself = snake.isBodyPartAt( newX, newY );
-            snake.add( new Snake.BodyPart( newX, newY, direction ) );
-            final Optional<Apple> apple = apples.stream().filter( a -> a.x() == newX && a.y() == newY ).findFirst();
-            if ( apple.isPresent() )
-            {
-                applesEaten++;
-                applesLeft--;
-                apples.remove( apple.get() );
-                if ( applesLeft == 0 )
-                {
-                    placeApples();
-                    level++;
-                }
-            }
-            else if ( !hitMyself )
-            {
-                snake.removeTailBodyPart();
-            }
+    private void run() throws IOException
+    {
+        // render at display rate, run as many fixed-rate simulation ticks as real time requires
+        final ActionListener gameLoop = _ -> {
+
+            final long now = System.nanoTime();
+            accumulatedNanos += now - lastFrameNanos;
+            lastFrameNanos = now;
 
-            if ( hitMyself )
+            int ticks = 0;
+            while ( accumulatedNanos >= TICK_NANOS && ticks++ < MAX_TICKS_PER_FRAME )
             {
-                gameOver = true;
-                inputQueue.clear();
+                accumulatedNanos -= TICK_NANOS;
+                tick();
+            }
+            if ( accumulatedNanos >= TICK_NANOS ) {
+                // fell too far behind, drop the backlog instead of trying to catch up
+                accumulatedNanos %= TICK_NANOS;
             }
             doPaint();
+            updateScheduling();
         };
 
-        // run game loop with 60 FPS (16 ms per frame)
-        final Timer t = new Timer( 16, gameLoop );
-        t.start();
-    }
-
-    private static boolean isOutsidePlayingField(int newX, int newY)
-    {
-        return newX < 0 || newY < 0 || newX >= GRID_X || newY >= GRID_Y;
+        lastFrameNanos = System.nanoTime();
+        timer = new Timer( Math.max( 1, 1000 / renderFps() ), gameLoop );
+        timer.start();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,239 @@
+package de.codesourcery.jsnake;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Autopilot that evaluates each possible direction by playing many random games ('playouts')
+ * starting with a move in that direction, picking the direction with the best average outcome.
+ *
+ * Playouts use the real game rules ({@link Game#advance(Direction)}), including apple placement, level-ups
+ * and self-collision. Since future apple positions are unknown, every playout re-seeds its game
+ * with a different random seed.
+ *
+ * Playouts run in parallel on a {@link ForkJoinPool}, each worker owns a pre-allocated game copy
+ * that gets overwritten at the start of every playout. All workers stop once the time budget
+ * for a decision is used up.
+ */
+public class MonteCarloAutopilot implements Autopilot
+{
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private static final double DEATH_PENALTY = 10;
+    private static final double SURVIVAL_BONUS_PER_MOVE = 0.01;
+
+    // probability of picking a random safe move instead of moving towards the closest apple
+    private static final double RANDOM_MOVE_PROBABILITY = 0.3;
+
+    private final ForkJoinPool pool;
+    private final long budgetNanos;
+    private final int horizonTicks;
+
+    private final Worker[] workers;
+    private final SearchTask rootTask;
+
+    // state of the decision currently being made
+    private volatile Game root;
+    private volatile long deadline;
+
+    private long totalPlayouts;
+
+    /**
+     * Create instance.
+     *
+     * @param gridX grid width of the games this autopilot will play
+     * @param gridY grid height of the games this autopilot will play
+     * @param budgetNanos max. time to spend per decision
+     * @param horizonTicks number of simulation ticks each playout covers, the number of
+     *                     moves this translates to depends on the level (see {@link Game#ticksTillMovement()})
+     * @param pool pool to run playouts on
+     */
+    public MonteCarloAutopilot(int gridX, int gridY, long budgetNanos, int horizonTicks, ForkJoinPool pool)
+    {
+        if ( budgetNanos <= 0 || horizonTicks <= 0 ) {
+            throw new IllegalArgumentException( "Budget and horizon must be > 0" );
+        }
+        this.pool = pool;
+        this.budgetNanos = budgetNanos;
+        this.horizonTicks = horizonTicks;
+
+        workers = new Worker[pool.getParallelism()];
+        for ( int i = 0; i < workers.length; i++ ) {
+            workers[i] = new Worker( new Game( gridX, gridY, i ), new Random( 0x5eed + i ) );
+        }
+        rootTask = new SearchTask();
+    }
+
+    @Override
+    public Direction nextDirection(Game game)
+    {
+        if ( game.isGameOver() ) {
+            return null;
+        }
+
+        root = game;
+        deadline = System.nanoTime() + budgetNanos;
+        try
+        {
+            rootTask.reinitialize();
+            pool.invoke( rootTask );
+        }
+        finally {
+            root = null;
+        }
+
+        final Direction reversed = game.getDirection().reversed();
+        Direction best = null;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for ( Direction candidate : DIRECTIONS )
+        {
+            if ( candidate == reversed ) {
+                continue;
+            }
+            double score = 0;
+            long playouts = 0;
+            for ( Worker w : workers )
+            {
+                score += w.scores[candidate.ordinal()];
+                playouts += w.playouts[candidate.ordinal()];
+            }
+            totalPlayouts += playouts;
+            final double mean = playouts == 0 ? Double.NEGATIVE_INFINITY : score / playouts;
+            if ( best == null || mean > bestScore )
+            {
+                best = candidate;
+                bestScore = mean;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the total number of playouts run so far.
+     *
+     * @return playout count
+     */
+    public long getTotalPlayouts()
+    {
+        return totalPlayouts;
+    }
+
+    private final class SearchTask extends RecursiveAction
+    {
+        @Override
+        protected void compute()
+        {
+            for ( Worker w : workers ) {
+                w.reinitialize();
+            }
+            invokeAll( workers );
+        }
+    }
+
+    private final class Worker extends RecursiveAction
+    {
+        private final Game sim;
+        private final Random rnd;
+
+        final double[] scores = new double[DIRECTIONS.length];
+        final long[] playouts = new long[DIRECTIONS.length];
+
+        Worker(Game sim, Random rnd)
+        {
+            this.sim = sim;
+            this.rnd = rnd;
+        }
+
+        @Override
+        protected void compute()
+        {
+            final Game start = root;
+            final long end = deadline;
+            final Direction reversed = start.getDirection().reversed();
+
+            Arrays.fill( scores, 0 );
+            Arrays.fill( playouts, 0 );
+
+            // always complete at least one playout per candidate, even with a tiny budget
+            int candidate = rnd.nextInt( DIRECTIONS.length );
+            int done = 0;
+            while ( done < DIRECTIONS.length - 1 || System.nanoTime() < end )
+            {
+                candidate = (candidate + 1) % DIRECTIONS.length;
+                if ( DIRECTIONS[candidate] == reversed ) {
+                    continue;
+                }
+                scores[candidate] += playout( start, DIRECTIONS[candidate] );
+                playouts[candidate]++;
+                done++;
+            }
+        }
+
+        private double playout(Game start, Direction firstMove)
+        {
+            sim.copyFrom( start );
+            sim.setSeed( rnd.nextLong() );
+
+            final int applesBefore = sim.getApplesEaten();
+            final long endTick = sim.getFrameCount() + horizonTicks;
+
+            sim.advance( firstMove );
+            int moves = 1;
+            while ( ! sim.isGameOver() && sim.getFrameCount() < endTick )
+            {
+                sim.advance( pickMove() );
+                moves++;
+            }
+
+            final double score = sim.getApplesEaten() - applesBefore + moves * SURVIVAL_BONUS_PER_MOVE;
+            return sim.isGameOver() ? score - DEATH_PENALTY : score;
+        }
+
+        // heuristic move: head for the closest apple, with some randomness; never picks a move that kills immediately
+        private Direction pickMove()
+        {
+            final int headX = sim.getSnake().headX();
+            final int headY = sim.getSnake().headY();
+            final Direction reversed = sim.getDirection().reversed();
+
+            final boolean random = rnd.nextDouble() < RANDOM_MOVE_PROBABILITY;
+            int target = -1;
+            if ( ! random )
+            {
+                int bestDist = Integer.MAX_VALUE;
+                for ( int i = 0, count = sim.getAppleCount(); i < count; i++ )
+                {
+                    final int dist = Math.abs( sim.getAppleX( i ) - headX ) + Math.abs( sim.getAppleY( i ) - headY );
+                    if ( dist < bestDist ) {
+                        bestDist = dist;
+                        target = i;
+                    }
+                }
+            }
+
+            Direction result = null;
+            int bestDist = Integer.MAX_VALUE;
+            final int offset = rnd.nextInt( DIRECTIONS.length );
+            for ( int i = 0; i < DIRECTIONS.length; i++ )
+            {
+                final Direction d = DIRECTIONS[(offset + i) % DIRECTIONS.length];
+                final int x = headX + d.dx;
+                final int y = headY + d.dy;
+                if ( d == reversed || sim.isOutsidePlayingField( x, y ) || sim.getSnake().isBodyPartAt( x, y ) ) {
+                    continue;
+                }
+                if ( target == -1 ) {
+                    return d;
+                }
+                final int dist = Math.abs( sim.getAppleX( target ) - x ) + Math.abs( sim.getAppleY( target ) - y );
+                if ( dist < bestDist ) {
+                    bestDist = dist;
+                    result = d;
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package de.codesourcery.jsnake;
+
+import java.awt.Graphics2D;
+
+/**
+ * Draws a {@link Game} onto a {@link Graphics2D} of arbitrary size.
+ */
+public interface Renderer
+{
+    /**
+     * Renders a game.
+     *
+     * @param game game to render
+     * @param perc how far the snake has moved towards its next position, in [0,1]
+     * @param g graphics to render to
+     * @param width width of the drawing area in pixels
+     * @param height height of the drawing area in pixels
+     * @see Game#movementProgress(float)
+     */
+    void render(Game game, float perc, Graphics2D g, int width, int height);
+}
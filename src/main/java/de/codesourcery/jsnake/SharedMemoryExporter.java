@@ -0,0 +1,307 @@
+package de.codesourcery.jsnake;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Publishes the live game state into a memory-mapped file so that other processes
+ * (bots, overlays, recorders, ...) can read it without copying or sockets.
+ *
+ * <h3>File layout</h3>
+ *
+ * All values are little-endian.
+ * <pre>
+ * offset  type   description
+ *   0     int    magic (0x4b4e534a, "JSNK")
+ *   4     int    layout version (1)
+ *   8     long   sequence number, odd while the game state is being written
+ *  16     int    grid width
+ *  20     int    grid height
+ *  24     long   tick counter
+ *  32     int    level
+ *  36     int    apples eaten
+ *  40     int    game over (0 or 1)
+ *  44     int    movement direction ({@link Direction#ordinal()})
+ *  48     int    snake length
+ *  52     int    number of apples
+ *  56     long   command sequence number (written by readers)
+ *  64     int    command direction ({@link Direction#ordinal()}, written by readers)
+ *  68     int    unused
+ *  72     byte[width * height]  grid, row by row, see <code>CELL_XXX</code> constants
+ *   ...   int[width * height]   snake cells (y * width + x), tail first, 4-byte aligned
+ *   ...   int[APPLES_PER_LEVEL] apple cells (y * width + x)
+ * </pre>
+ *
+ * <h3>Reading consistent snapshots</h3>
+ *
+ * Readers read the sequence number, copy whatever they need, then read the sequence number again.
+ * The copy is consistent if both values are equal and even, otherwise the reader has to retry.
+ *
+ * <h3>Sending commands</h3>
+ *
+ * A reader changes the snake's direction by writing the direction to the command slot
+ * and then incrementing the command sequence number.
+ *
+ * @see Reader
+ */
+public class SharedMemoryExporter implements AutoCloseable
+{
+    public static final int MAGIC = 0x4b4e534a;
+    public static final int LAYOUT_VERSION = 1;
+
+    public static final byte CELL_EMPTY = 0;
+    public static final byte CELL_BODY = 1;
+    public static final byte CELL_HEAD = 2;
+    public static final byte CELL_APPLE = 3;
+
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_SEQUENCE = 8;
+    private static final int OFFSET_GRID_X = 16;
+    private static final int OFFSET_GRID_Y = 20;
+    private static final int OFFSET_TICK = 24;
+    private static final int OFFSET_LEVEL = 32;
+    private static final int OFFSET_APPLES_EATEN = 36;
+    private static final int OFFSET_GAME_OVER = 40;
+    private static final int OFFSET_DIRECTION = 44;
+    private static final int OFFSET_SNAKE_LENGTH = 48;
+    private static final int OFFSET_APPLE_COUNT = 52;
+    private static final int OFFSET_COMMAND_SEQUENCE = 56;
+    private static final int OFFSET_COMMAND_DIRECTION = 64;
+    private static final int OFFSET_GRID = 72;
+
+    private static final VarHandle LONG_HANDLE = MethodHandles.byteBufferViewVarHandle( long[].class, ByteOrder.LITTLE_ENDIAN );
+    private static final VarHandle INT_HANDLE = MethodHandles.byteBufferViewVarHandle( int[].class, ByteOrder.LITTLE_ENDIAN );
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int gridX;
+    private final int gridY;
+    private final int snakeOffset;
+    private final int applesOffset;
+
+    // grid contents of the last published state, cleared cell by cell instead of wiping the whole grid
+    private final int[] lastSnake;
+    private int lastSnakeLength;
+    private final int[] lastApples = new int[Game.APPLES_PER_LEVEL];
+    private int lastAppleCount;
+
+    private long sequence;
+    private long lastCommandSequence;
+
+    public SharedMemoryExporter(Path file, int gridX, int gridY) throws IOException
+    {
+        this.gridX = gridX;
+        this.gridY = gridY;
+        this.snakeOffset = align4( OFFSET_GRID + gridX * gridY );
+        this.applesOffset = snakeOffset + 4 * gridX * gridY;
+        this.lastSnake = new int[gridX * gridY];
+
+        channel = FileChannel.open( file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING );
+        buffer = channel.map( FileChannel.MapMode.READ_WRITE, 0, fileSize( gridX, gridY ) );
+        buffer.order( ByteOrder.LITTLE_ENDIAN );
+
+        buffer.putInt( OFFSET_VERSION, LAYOUT_VERSION );
+        buffer.putInt( OFFSET_GRID_X, gridX );
+        buffer.putInt( OFFSET_GRID_Y, gridY );
+        LONG_HANDLE.setRelease( buffer, OFFSET_COMMAND_SEQUENCE, 0L );
+        LONG_HANDLE.setRelease( buffer, OFFSET_SEQUENCE, 0L );
+        // magic goes last so readers never see a partially initialized header
+        INT_HANDLE.setRelease( buffer, OFFSET_MAGIC, MAGIC );
+    }
+
+    private static int align4(int value) {
+        return (value + 3) & ~3;
+    }
+
+    private static int fileSize(int gridX, int gridY) {
+        return align4( OFFSET_GRID + gridX * gridY ) + 4 * gridX * gridY + 4 * Game.APPLES_PER_LEVEL;
+    }
+
+    /**
+     * Writes the current game state.
+     *
+     * @param game game to publish, must have the grid size this exporter was created with
+     */
+    public void publish(Game game)
+    {
+        if ( game.gridX != gridX || game.gridY != gridY ) {
+            throw new IllegalArgumentException( "Grid size mismatch" );
+        }
+        if ( game.applesPerLevel > Game.APPLES_PER_LEVEL ) {
+            throw new IllegalArgumentException( "At most " + Game.APPLES_PER_LEVEL + " apples per level supported" );
+        }
+
+        LONG_HANDLE.setOpaque( buffer, OFFSET_SEQUENCE, ++sequence );
+        VarHandle.storeStoreFence();
+
+        // clear cells from previous state
+        for ( int i = 0; i < lastSnakeLength; i++ ) {
+            buffer.put( OFFSET_GRID + lastSnake[i], CELL_EMPTY );
+        }
+        for ( int i = 0; i < lastAppleCount; i++ ) {
+            buffer.put( OFFSET_GRID + lastApples[i], CELL_EMPTY );
+        }
+
+        lastAppleCount = 0;
+        for ( int i = 0, count = game.getAppleCount(); i < count; i++ )
+        {
+            final int cell = game.getAppleY( i ) * gridX + game.getAppleX( i );
+            lastApples[lastAppleCount] = cell;
+            buffer.putInt( applesOffset + 4 * lastAppleCount++, cell );
+            buffer.put( OFFSET_GRID + cell, CELL_APPLE );
+        }
+
+        final Snake snake = game.getSnake();
+        lastSnakeLength = snake.size();
+        for ( int i = 0; i < lastSnakeLength; i++ )
+        {
+            final int cell = snake.y( i ) * gridX + snake.x( i );
+            lastSnake[i] = cell;
+            buffer.putInt( snakeOffset + 4 * i, cell );
+            buffer.put( OFFSET_GRID + cell, i == lastSnakeLength - 1 ? CELL_HEAD : CELL_BODY );
+        }
+
+        buffer.putLong( OFFSET_TICK, game.getFrameCount() );
+        buffer.putInt( OFFSET_LEVEL, game.getLevel() );
+        buffer.putInt( OFFSET_APPLES_EATEN, game.getApplesEaten() );
+        buffer.putInt( OFFSET_GAME_OVER, game.isGameOver() ? 1 : 0 );
+        buffer.putInt( OFFSET_DIRECTION, game.getDirection().ordinal() );
+        buffer.putInt( OFFSET_SNAKE_LENGTH, lastSnakeLength );
+        buffer.putInt( OFFSET_APPLE_COUNT, lastAppleCount );
+
+        LONG_HANDLE.setRelease( buffer, OFFSET_SEQUENCE, ++sequence );
+    }
+
+    /**
+     * Checks the command slot for a new direction.
+     *
+     * @return direction requested by a reader since the last call or <code>null</code>
+     */
+    public Direction pollCommand()
+    {
+        final long seq = (long) LONG_HANDLE.getAcquire( buffer, OFFSET_COMMAND_SEQUENCE );
+        if ( seq == lastCommandSequence ) {
+            return null;
+        }
+        lastCommandSequence = seq;
+        final int dir = buffer.getInt( OFFSET_COMMAND_DIRECTION );
+        return dir >= 0 && dir < DIRECTIONS.length ? DIRECTIONS[dir] : null;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    /**
+     * Reads game state published by a {@link SharedMemoryExporter}, possibly from another process.
+     */
+    public static class Reader implements AutoCloseable
+    {
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        public final int gridX;
+        public final int gridY;
+
+        private long commandSequence;
+
+        public Reader(Path file) throws IOException
+        {
+            channel = FileChannel.open( file, StandardOpenOption.READ, StandardOpenOption.WRITE );
+            final MappedByteBuffer header = channel.map( FileChannel.MapMode.READ_ONLY, 0, OFFSET_GRID );
+            header.order( ByteOrder.LITTLE_ENDIAN );
+            if ( (int) INT_HANDLE.getAcquire( header, OFFSET_MAGIC ) != MAGIC ) {
+                throw new IOException( "Not a JSnake shared memory file: " + file );
+            }
+            if ( header.getInt( OFFSET_VERSION ) != LAYOUT_VERSION ) {
+                throw new IOException( "Unsupported layout version " + header.getInt( OFFSET_VERSION ) );
+            }
+            gridX = header.getInt( OFFSET_GRID_X );
+            gridY = header.getInt( OFFSET_GRID_Y );
+            buffer = channel.map( FileChannel.MapMode.READ_WRITE, 0, fileSize( gridX, gridY ) );
+            buffer.order( ByteOrder.LITTLE_ENDIAN );
+            commandSequence = (long) LONG_HANDLE.getAcquire( buffer, OFFSET_COMMAND_SEQUENCE );
+        }
+
+        /**
+         * A consistent copy of the game state.
+         */
+        public static final class Snapshot
+        {
+            public long tick;
+            public int level;
+            public int applesEaten;
+            public boolean gameOver;
+            public Direction direction;
+            public byte[] grid;
+        }
+
+        /**
+         * Copies a consistent snapshot of the game state.
+         *
+         * @param target snapshot to copy to, its grid array gets (re-)allocated if too small
+         * @return <code>false</code> if nothing has been published yet
+         */
+        public boolean read(Snapshot target)
+        {
+            final int cells = gridX * gridY;
+            if ( target.grid == null || target.grid.length < cells ) {
+                target.grid = new byte[cells];
+            }
+            while ( true )
+            {
+                final long seq1 = (long) LONG_HANDLE.getAcquire( buffer, OFFSET_SEQUENCE );
+                if ( seq1 == 0 ) {
+                    return false;
+                }
+                if ( (seq1 & 1) != 0 ) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                target.tick = buffer.getLong( OFFSET_TICK );
+                target.level = buffer.getInt( OFFSET_LEVEL );
+                target.applesEaten = buffer.getInt( OFFSET_APPLES_EATEN );
+                target.gameOver = buffer.getInt( OFFSET_GAME_OVER ) != 0;
+                final int dir = buffer.getInt( OFFSET_DIRECTION );
+                buffer.get( OFFSET_GRID, target.grid, 0, cells );
+                VarHandle.loadLoadFence();
+                final long seq2 = (long) LONG_HANDLE.getOpaque( buffer, OFFSET_SEQUENCE );
+                if ( seq1 == seq2 && dir >= 0 && dir < DIRECTIONS.length )
+                {
+                    target.direction = DIRECTIONS[dir];
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Asks the game to change the snake's direction.
+         *
+         * Only one process should send commands.
+         *
+         * @param direction
+         */
+        public void sendCommand(Direction direction)
+        {
+            buffer.putInt( OFFSET_COMMAND_DIRECTION, direction.ordinal() );
+            LONG_HANDLE.setRelease( buffer, OFFSET_COMMAND_SEQUENCE, ++commandSequence );
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            channel.close();
+        }
+    }
+}
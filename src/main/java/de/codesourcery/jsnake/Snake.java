@@ -1,49 +1,266 @@
 package de.codesourcery.jsnake;
 
-import java.util.ArrayList;
-import java.util.List;
-
+/**
+ * The snake's body parts, tail first.
+ *
+ * Body parts are stored in primitive ring buffers and cell occupancy is tracked in a grid,
+ * so moving the snake and collision checks are O(1) and do not allocate once
+ * the buffers have grown to the snake's length.
+ */
 public class Snake
 {
-    public final List<BodyPart> snake = new ArrayList<>();
+    // initial ring buffer capacity for large grids, buffers grow as needed
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private final int gridX;
+    private final int gridY;
+
+    // number of body parts per cell, can only exceed one when the snake just bit itself
+    private final byte[] occupancy;
+
+    private int[] xs;
+    private int[] ys;
+    private Direction[] directions;
+    private int first;
+    private int size;
+
+    /*
+     * Consecutive body parts moving in the same direction form a straight line of cells ('run').
+     * Runs are kept in a ring buffer (tail-most run first) and updated incrementally
+     * as body parts get added at the head and removed at the tail.
+     */
+    private Direction[] runDirections = new Direction[16];
+    private int[] runLengths = new int[16];
+    private int firstRun;
+    private int runCount;
 
     public record BodyPart(int x, int y, Direction direction) {
     }
 
+    /**
+     * Create instance.
+     *
+     * @param gridX width of the grid the snake moves on
+     * @param gridY height of the grid the snake moves on
+     */
+    public Snake(int gridX, int gridY)
+    {
+        this.gridX = gridX;
+        this.gridY = gridY;
+        this.occupancy = new byte[gridX * gridY];
+        // the head may overlap the body when biting itself
+        final int capacity = Math.min( gridX * gridY + 1, INITIAL_CAPACITY );
+        xs = new int[capacity];
+        ys = new int[capacity];
+        directions = new Direction[capacity];
+    }
+
     /*
                     snake.add( s1 ); /// tail
                 snake.add( s2 ); /// head
      */
     public BodyPart head() {
-        return snake.get( snake.size() - 1 );
+        return get( size - 1 );
+    }
+
+    public int headX() {
+        return xs[slot( size - 1 )];
+    }
+
+    public int headY() {
+        return ys[slot( size - 1 )];
     }
 
     public boolean isBodyPartAt(int newX, int newY)
     {
-        return snake.stream().anyMatch( s -> s.x() == newX && s.y() == newY );
+        if ( newX < 0 || newY < 0 || newX >= gridX || newY >= gridY ) {
+            return false;
+        }
+        return occupancy[newY * gridX + newX] != 0;
     }
 
+    /**
+     * Returns a body part.
+     *
+     * Allocates, use {@link #x(int)}, {@link #y(int)} and {@link #direction(int)} on hot paths.
+     *
+     * @param idx index, 0 being the tail
+     * @return body part
+     */
     public BodyPart get(int idx) {
-        return snake.get( idx );
+        final int slot = slot( checkIndex( idx ) );
+        return new BodyPart( xs[slot], ys[slot], directions[slot] );
+    }
+
+    public int x(int idx) {
+        return xs[slot( checkIndex( idx ) )];
+    }
+
+    public int y(int idx) {
+        return ys[slot( checkIndex( idx ) )];
+    }
+
+    public Direction direction(int idx) {
+        return directions[slot( checkIndex( idx ) )];
     }
 
     public void clear() {
-        snake.clear();
+        for ( int i = 0; i < size; i++ )
+        {
+            final int slot = slot( i );
+            occupancy[ys[slot] * gridX + xs[slot]] = 0;
+        }
+        first = 0;
+        size = 0;
+        firstRun = 0;
+        runCount = 0;
+    }
+
+    /**
+     * Overwrites this snake with another snake's body parts.
+     *
+     * @param other snake to copy, must be on a grid of the same size
+     */
+    public void copyFrom(Snake other)
+    {
+        if ( other.gridX != gridX || other.gridY != gridY ) {
+            throw new IllegalArgumentException( "Grid size mismatch" );
+        }
+        clear();
+        for ( int i = 0; i < other.size; i++ )
+        {
+            final int slot = other.slot( i );
+            add( other.xs[slot], other.ys[slot], other.directions[slot] );
+        }
     }
 
     public int size() {
-        return snake.size();
+        return size;
     }
 
     public void add(BodyPart part) {
-        snake.add( part );
+        add( part.x(), part.y(), part.direction() );
+    }
+
+    public void add(int x, int y, Direction direction) {
+        if ( x < 0 || y < 0 || x >= gridX || y >= gridY ) {
+            throw new IllegalArgumentException( "Body part outside of grid: " + x + "," + y );
+        }
+        if ( size == xs.length ) {
+            grow();
+        }
+        final int slot = slot( size++ );
+        xs[slot] = x;
+        ys[slot] = y;
+        directions[slot] = direction;
+        occupancy[y * gridX + x]++;
+
+        if ( runCount > 0 && runDirections[runSlot( runCount - 1 )] == direction )
+        {
+            runLengths[runSlot( runCount - 1 )]++;
+            return;
+        }
+        if ( runCount == runLengths.length ) {
+            growRuns();
+        }
+        final int runSlot = runSlot( runCount++ );
+        runDirections[runSlot] = direction;
+        runLengths[runSlot] = 1;
     }
 
     public BodyPart tail() {
-        return snake.get( 0 );
+        return get( 0 );
     }
 
     public void removeTailBodyPart() {
-        snake.removeFirst();
+        if ( size == 0 ) {
+            throw new IllegalStateException( "Snake is empty" );
+        }
+        occupancy[ys[first] * gridX + xs[first]]--;
+        directions[first] = null;
+        first = slot( 1 );
+        size--;
+
+        if ( --runLengths[firstRun] == 0 )
+        {
+            firstRun = runSlot( 1 );
+            runCount--;
+        }
+    }
+
+    /**
+     * Returns the number of straight runs of body parts moving in the same direction.
+     *
+     * @return run count
+     */
+    public int runCount() {
+        return runCount;
+    }
+
+    /**
+     * Returns the number of body parts in a run.
+     *
+     * @param idx run index, 0 being the run that contains the tail
+     * @return length
+     */
+    public int runLength(int idx) {
+        return runLengths[runSlot( idx )];
+    }
+
+    public Direction runDirection(int idx) {
+        return runDirections[runSlot( idx )];
+    }
+
+    private int checkIndex(int idx) {
+        if ( idx < 0 || idx >= size ) {
+            throw new IndexOutOfBoundsException( "Index " + idx + " out of bounds for length " + size );
+        }
+        return idx;
+    }
+
+    private int slot(int idx) {
+        final int slot = first + idx;
+        return slot >= xs.length ? slot - xs.length : slot;
+    }
+
+    private void grow()
+    {
+        final int newSize = Math.min( xs.length * 2, gridX * gridY + 1 );
+        if ( newSize == xs.length ) {
+            throw new IllegalStateException( "Snake cannot grow any further" );
+        }
+        final int[] newXs = new int[newSize];
+        final int[] newYs = new int[newSize];
+        final Direction[] newDirections = new Direction[newSize];
+        for ( int i = 0; i < size; i++ )
+        {
+            final int slot = slot( i );
+            newXs[i] = xs[slot];
+            newYs[i] = ys[slot];
+            newDirections[i] = directions[slot];
+        }
+        xs = newXs;
+        ys = newYs;
+        directions = newDirections;
+        first = 0;
+    }
+
+    private int runSlot(int idx) {
+        return (firstRun + idx) % runLengths.length;
+    }
+
+    private void growRuns()
+    {
+        final int newSize = runLengths.length * 2;
+        final Direction[] newDirections = new Direction[newSize];
+        final int[] newLengths = new int[newSize];
+        for ( int i = 0; i < runCount; i++ )
+        {
+            newDirections[i] = runDirections[runSlot( i )];
+            newLengths[i] = runLengths[runSlot( i )];
+        }
+        runDirections = newDirections;
+        runLengths = newLengths;
+        firstRun = 0;
     }
 }
@@ -0,0 +1,509 @@
+package de.codesourcery.jsnake;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Broadcasts a live game to any number of spectators connected via loopback TCP sockets.
+ *
+ * The game loop encodes state changes (see {@link Game.Listener}) as compact deltas into a local buffer
+ * and hands them over to a broadcaster thread every {@link #BATCH_TICKS} ticks. The broadcaster thread
+ * fans out each batch to all subscribers using non-blocking I/O. Every subscriber has a bounded
+ * send queue, subscribers that fall behind get their queue discarded and are re-synchronized by
+ * sending them the most recent keyframe (full game state) plus all delta batches since. The game loop
+ * never blocks on spectators.
+ *
+ * <h3>Wire format</h3>
+ *
+ * All values are big-endian. The stream is a sequence of messages:
+ * <pre>
+ * int   payload length (not including this field)
+ * byte  message type (MSG_KEYFRAME or MSG_DELTAS)
+ * ...   payload
+ * </pre>
+ * Keyframe payload:
+ * <pre>
+ * short grid width, short grid height, long tick, int level, int apples eaten,
+ * byte game over (0/1), byte direction ordinal,
+ * int snake length, snake length * (short x, short y, byte direction ordinal) tail first,
+ * int apple count, apple count * (short x, short y)
+ * </pre>
+ * Delta payload is a sequence of records, each starting with an opcode byte:
+ * <pre>
+ * OP_TICK          long tick        all following records happened during this tick
+ * OP_HEAD_ADDED    short x, short y, byte direction ordinal
+ * OP_TAIL_REMOVED
+ * OP_APPLE_EATEN   short x, short y
+ * OP_APPLE_PLACED  short x, short y
+ * OP_LEVEL         int level
+ * OP_GAME_OVER
+ * </pre>
+ */
+public class SpectatorServer implements Game.Listener, AutoCloseable
+{
+    public static final byte MSG_KEYFRAME = 1;
+    public static final byte MSG_DELTAS = 2;
+
+    public static final byte OP_TICK = 1;
+    public static final byte OP_HEAD_ADDED = 2;
+    public static final byte OP_TAIL_REMOVED = 3;
+    public static final byte OP_APPLE_EATEN = 4;
+    public static final byte OP_APPLE_PLACED = 5;
+    public static final byte OP_LEVEL = 6;
+    public static final byte OP_GAME_OVER = 7;
+
+    // number of game ticks to collect before sending deltas to subscribers
+    public static final int BATCH_TICKS = 4;
+
+    // number of game ticks between keyframes, bounds the number of delta batches kept for re-syncing subscribers
+    public static final int KEYFRAME_TICKS = 600;
+
+    // max. number of bytes queued per subscriber
+    private static final int MAX_QUEUED_BYTES = 256 * 1024;
+
+    private static final int HEADER_SIZE = 4 + 1;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final Thread thread;
+    private volatile boolean terminate;
+
+    // messages handed over from the game loop to the broadcaster thread
+    private final ConcurrentLinkedQueue<ByteBuffer> outbox = new ConcurrentLinkedQueue<>();
+
+    // game loop state
+    private ByteBuffer batch = ByteBuffer.allocate( 64 * 1024 );
+    // position of the current tick's OP_TICK record in the batch, -1 if the current tick had no events yet
+    private int tickRecordPosition = -1;
+    private int ticksInBatch;
+    private int ticksSinceKeyframe;
+    private boolean keyframeRequested = true;
+    private boolean flushRequested;
+
+    // broadcaster thread state
+    private final List<Subscriber> subscribers = new ArrayList<>();
+    private ByteBuffer latestKeyframe;
+    private final List<ByteBuffer> deltasSinceKeyframe = new ArrayList<>();
+
+    private static final class Subscriber
+    {
+        final SocketChannel channel;
+        final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+        int queuedBytes;
+
+        Subscriber(SocketChannel channel)
+        {
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * Starts listening for spectators.
+     *
+     * @param port port to listen on (loopback interface only), 0 picks a free port
+     * @throws IOException
+     */
+    public SpectatorServer(int port) throws IOException
+    {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind( new InetSocketAddress( InetAddress.getLoopbackAddress(), port ) );
+        serverChannel.configureBlocking( false );
+        serverChannel.register( selector, SelectionKey.OP_ACCEPT );
+
+        thread = new Thread( this::run, "spectator-broadcaster" );
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+    public int getPort()
+    {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    // ---- game loop side ----
+
+    /**
+     * Must be invoked by the game loop after every simulation tick.
+     *
+     * @param game
+     */
+    public void endTick(Game game)
+    {
+        if ( tickRecordPosition != -1 )
+        {
+            batch.putLong( tickRecordPosition + 1, game.getFrameCount() );
+            tickRecordPosition = -1;
+        }
+
+        if ( keyframeRequested || ++ticksSinceKeyframe >= KEYFRAME_TICKS )
+        {
+            // keyframe supersedes any deltas not sent yet
+            batch.clear();
+            ticksInBatch = 0;
+            ticksSinceKeyframe = 0;
+            keyframeRequested = false;
+            flushRequested = false;
+            publish( encodeKeyframe( game ) );
+            return;
+        }
+        if ( ++ticksInBatch >= BATCH_TICKS || flushRequested ) {
+            flush();
+        }
+    }
+
+    private void flush()
+    {
+        ticksInBatch = 0;
+        flushRequested = false;
+        if ( batch.position() > 0 )
+        {
+            batch.flip();
+            final ByteBuffer msg = ByteBuffer.allocate( HEADER_SIZE + batch.remaining() );
+            msg.putInt( 1 + batch.remaining() ).put( MSG_DELTAS ).put( batch ).flip();
+            batch.clear();
+            publish( msg );
+        }
+    }
+
+    private void publish(ByteBuffer msg)
+    {
+        outbox.add( msg.asReadOnlyBuffer() );
+        selector.wakeup();
+    }
+
+    private ByteBuffer encodeKeyframe(Game game)
+    {
+        final Snake snake = game.getSnake();
+        final int size = HEADER_SIZE + 2 + 2 + 8 + 4 + 4 + 1 + 1 + 4 + snake.size() * 5 + 4 + game.getAppleCount() * 4;
+        final ByteBuffer msg = ByteBuffer.allocate( size );
+        msg.putInt( size - 4 ).put( MSG_KEYFRAME );
+        msg.putShort( (short) game.gridX ).putShort( (short) game.gridY );
+        msg.putLong( game.getFrameCount() );
+        msg.putInt( game.getLevel() ).putInt( game.getApplesEaten() );
+        msg.put( (byte) (game.isGameOver() ? 1 : 0) ).put( (byte) game.getDirection().ordinal() );
+        msg.putInt( snake.size() );
+        for ( int i = 0, len = snake.size(); i < len; i++ )
+        {
+            msg.putShort( (short) snake.x( i ) ).putShort( (short) snake.y( i ) ).put( (byte) snake.direction( i ).ordinal() );
+        }
+        msg.putInt( game.getAppleCount() );
+        for ( int i = 0, count = game.getAppleCount(); i < count; i++ ) {
+            msg.putShort( (short) game.getAppleX( i ) ).putShort( (short) game.getAppleY( i ) );
+        }
+        return msg.flip();
+    }
+
+    private ByteBuffer record(int size)
+    {
+        if ( tickRecordPosition == -1 )
+        {
+            ensureCapacity( 1 + 8 + size );
+            // tick counter gets filled in by endTick()
+            tickRecordPosition = batch.position();
+            batch.put( OP_TICK ).putLong( 0 );
+        }
+        ensureCapacity( size );
+        return batch;
+    }
+
+    private void ensureCapacity(int size)
+    {
+        if ( batch.remaining() < size )
+        {
+            final ByteBuffer tmp = ByteBuffer.allocate( batch.capacity() * 2 );
+            batch.flip();
+            batch = tmp.put( batch );
+        }
+    }
+
+    @Override
+    public void reset(Game game)
+    {
+        keyframeRequested = true;
+    }
+
+    @Override
+    public void headAdded(int x, int y, Direction direction)
+    {
+        record( 6 ).put( OP_HEAD_ADDED ).putShort( (short) x ).putShort( (short) y ).put( (byte) direction.ordinal() );
+    }
+
+    @Override
+    public void tailRemoved()
+    {
+        record( 1 ).put( OP_TAIL_REMOVED );
+    }
+
+    @Override
+    public void appleEaten(int x, int y)
+    {
+        record( 5 ).put( OP_APPLE_EATEN ).putShort( (short) x ).putShort( (short) y );
+    }
+
+    @Override
+    public void applePlaced(int x, int y)
+    {
+        record( 5 ).put( OP_APPLE_PLACED ).putShort( (short) x ).putShort( (short) y );
+    }
+
+    @Override
+    public void levelChanged(int level)
+    {
+        record( 5 ).put( OP_LEVEL ).putInt( level );
+    }
+
+    @Override
+    public void gameOver()
+    {
+        record( 1 ).put( OP_GAME_OVER );
+        // make sure spectators see the end of the game right away
+        flushRequested = true;
+    }
+
+    // ---- broadcaster thread side ----
+
+    private void run()
+    {
+        try
+        {
+            while ( ! terminate )
+            {
+                selector.select();
+                processOutbox();
+
+                final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while ( it.hasNext() )
+                {
+                    final SelectionKey key = it.next();
+                    it.remove();
+                    if ( ! key.isValid() ) {
+                        continue;
+                    }
+                    if ( key.isAcceptable() ) {
+                        accept();
+                    }
+                    else if ( key.isWritable() ) {
+                        write( (Subscriber) key.attachment() );
+                    }
+                }
+            }
+        }
+        catch( IOException e )
+        {
+            if ( ! terminate ) {
+                e.printStackTrace();
+            }
+        }
+        finally
+        {
+            subscribers.forEach( s -> closeQuietly( s.channel ) );
+            subscribers.clear();
+        }
+    }
+
+    private void processOutbox()
+    {
+        ByteBuffer msg;
+        while ( (msg = outbox.poll()) != null )
+        {
+            if ( msg.get( 4 ) == MSG_KEYFRAME )
+            {
+                latestKeyframe = msg;
+                deltasSinceKeyframe.clear();
+            }
+            else
+            {
+                deltasSinceKeyframe.add( msg );
+            }
+            for ( int i = subscribers.size() - 1; i >= 0; i-- )
+            {
+                final Subscriber s = subscribers.get( i );
+                if ( ! enqueue( s, msg ) ) {
+                    resync( s );
+                }
+                write( s );
+            }
+        }
+    }
+
+    private void accept() throws IOException
+    {
+        final SocketChannel channel = serverChannel.accept();
+        if ( channel == null ) {
+            return;
+        }
+        channel.configureBlocking( false );
+        channel.socket().setTcpNoDelay( true );
+        final Subscriber s = new Subscriber( channel );
+        channel.register( selector, 0, s );
+        subscribers.add( s );
+        resync( s );
+        write( s );
+    }
+
+    private boolean enqueue(Subscriber s, ByteBuffer msg)
+    {
+        if ( s.queuedBytes + msg.remaining() > MAX_QUEUED_BYTES ) {
+            return false;
+        }
+        s.queue.add( msg.duplicate() );
+        s.queuedBytes += msg.remaining();
+        return true;
+    }
+
+    // drop everything queued (except a partially sent message) and start over from the latest keyframe
+    private void resync(Subscriber s)
+    {
+        final ByteBuffer partial = s.queue.peekFirst();
+        s.queue.clear();
+        s.queuedBytes = 0;
+        if ( partial != null && partial.position() > 0 ) {
+            s.queue.add( partial );
+            s.queuedBytes = partial.remaining();
+        }
+        if ( latestKeyframe == null ) {
+            return;
+        }
+        boolean success = enqueue( s, latestKeyframe );
+        for ( int i = 0; success && i < deltasSinceKeyframe.size(); i++ ) {
+            success = enqueue( s, deltasSinceKeyframe.get( i ) );
+        }
+        if ( ! success ) {
+            // cannot even hold the current state, give up on this subscriber
+            drop( s );
+        }
+    }
+
+    private void write(Subscriber s)
+    {
+        if ( ! s.channel.isOpen() ) {
+            return;
+        }
+        try
+        {
+            while ( ! s.queue.isEmpty() )
+            {
+                final ByteBuffer head = s.queue.peekFirst();
+                final int written = s.channel.write( head );
+                s.queuedBytes -= written;
+                if ( head.hasRemaining() ) {
+                    break;
+                }
+                s.queue.removeFirst();
+            }
+            final SelectionKey key = s.channel.keyFor( selector );
+            if ( key != null ) {
+                key.interestOps( s.queue.isEmpty() ? 0 : SelectionKey.OP_WRITE );
+            }
+        }
+        catch( IOException e )
+        {
+            drop( s );
+        }
+    }
+
+    private void drop(Subscriber s)
+    {
+        subscribers.remove( s );
+        s.queue.clear();
+        closeQuietly( s.channel );
+    }
+
+    private static void closeQuietly(SocketChannel channel)
+    {
+        try
+        {
+            channel.close();
+        }
+        catch( IOException e )
+        {
+            // ignore
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        terminate = true;
+        selector.wakeup();
+        try
+        {
+            thread.join( 1000 );
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        serverChannel.close();
+        selector.close();
+    }
+
+    /**
+     * Connects to a spectator server and prints the decoded stream.
+     *
+     * Usage: <code>SpectatorServer port</code>
+     */
+    public static void main(String[] args) throws IOException
+    {
+        try ( Socket socket = new Socket( InetAddress.getLoopbackAddress(), Integer.parseInt( args[0] ) ) )
+        {
+            final DataInputStream in = new DataInputStream( socket.getInputStream() );
+            while ( true )
+            {
+                final int length;
+                try
+                {
+                    length = in.readInt();
+                }
+                catch( EOFException e )
+                {
+                    break;
+                }
+                final byte[] payload = new byte[length];
+                in.readFully( payload );
+                final ByteBuffer buf = ByteBuffer.wrap( payload );
+                final byte type = buf.get();
+                if ( type == MSG_KEYFRAME )
+                {
+                    System.out.println( "KEYFRAME grid=" + buf.getShort() + "x" + buf.getShort() + " tick=" + buf.getLong() +
+                        " level=" + buf.getInt() + " eaten=" + buf.getInt() + " gameOver=" + buf.get() +
+                        " direction=" + DIRECTIONS[buf.get()] + " snakeLength=" + buf.getInt() );
+                    continue;
+                }
+                final StringBuilder sb = new StringBuilder( "DELTAS" );
+                while ( buf.hasRemaining() )
+                {
+                    switch( buf.get() )
+                    {
+                        case OP_TICK -> sb.append( "\n  tick " ).append( buf.getLong() ).append( ':' );
+                        case OP_HEAD_ADDED -> sb.append( " head+(" ).append( buf.getShort() ).append( ',' ).append( buf.getShort() ).append( ',' ).append( DIRECTIONS[buf.get()] ).append( ')' );
+                        case OP_TAIL_REMOVED -> sb.append( " tail-" );
+                        case OP_APPLE_EATEN -> sb.append( " eaten(" ).append( buf.getShort() ).append( ',' ).append( buf.getShort() ).append( ')' );
+                        case OP_APPLE_PLACED -> sb.append( " apple(" ).append( buf.getShort() ).append( ',' ).append( buf.getShort() ).append( ')' );
+                        case OP_LEVEL -> sb.append( " level=" ).append( buf.getInt() );
+                        case OP_GAME_OVER -> sb.append( " GAME OVER" );
+                        default -> throw new IOException( "Corrupted stream" );
+                    }
+                }
+                System.out.println( sb );
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package de.codesourcery.jsnake;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Records how long each startup phase took and reports them once the first frame has been painted.
+ *
+ * Sequential phases are recorded with {@link #mark(String)}, phases running concurrently on
+ * other threads with {@link #begin()} / {@link #end(String, long)}. Phases ending after
+ * the first frame get reported individually.
+ *
+ * Thread-safe.
+ */
+final class StartupTimer
+{
+    private record Phase(String name, long startNanos, long endNanos) {}
+
+    private final long start = System.nanoTime();
+    private final List<Phase> phases = new ArrayList<>();
+    private long lastMark = start;
+    private boolean reported;
+
+    /**
+     * Records a sequential phase that started with the previous call to this method (or with the creation of this timer).
+     *
+     * @param phase phase name
+     */
+    public synchronized void mark(String phase)
+    {
+        final long now = System.nanoTime();
+        add( new Phase( phase, lastMark, now ) );
+        lastMark = now;
+    }
+
+    /**
+     * Returns the start time of a concurrent phase.
+     *
+     * @return start time, to be passed to {@link #end(String, long)}
+     */
+    public long begin()
+    {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records a concurrent phase.
+     *
+     * @param phase phase name
+     * @param startNanos value returned by {@link #begin()} when the phase started
+     */
+    public synchronized void end(String phase, long startNanos)
+    {
+        add( new Phase( phase, startNanos, System.nanoTime() ) );
+    }
+
+    /**
+     * Records the last sequential phase and reports all phases along with the time to first frame.
+     *
+     * Only the first invocation has an effect.
+     *
+     * @param phase name of the phase that ended with the first frame
+     */
+    public synchronized void firstFrame(String phase)
+    {
+        if ( reported ) {
+            return;
+        }
+        mark( phase );
+        reported = true;
+
+        final StringBuilder msg = new StringBuilder( "Startup: first frame after " ).append( millis( lastMark - start ) );
+        phases.stream().sorted( Comparator.comparingLong( Phase::startNanos ) ).forEach( p -> msg.append( "\n  " ).append( format( p ) ) );
+        System.out.println( msg );
+    }
+
+    private void add(Phase p)
+    {
+        if ( reported ) {
+            System.out.println( "Startup: " + format( p ) + " (after first frame)" );
+        } else {
+            phases.add( p );
+        }
+    }
+
+    private String format(Phase p)
+    {
+        return String.format( Locale.ROOT, "%-22s %s (at %s - %s)", p.name(),
+            millis( p.endNanos() - p.startNanos() ), millis( p.startNanos() - start ), millis( p.endNanos() - start ) );
+    }
+
+    private static String millis(long nanos)
+    {
+        return String.format( Locale.ROOT, "%.1f ms", nanos / 1e6 );
+    }
+}
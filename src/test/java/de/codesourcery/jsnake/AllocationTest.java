@@ -0,0 +1,60 @@
+package de.codesourcery.jsnake;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Allocation regression test for the steady-state game loop.
+ *
+ * Runs thousands of ticks (input, game tick and rendering) after a warm-up phase and
+ * asserts that none of them allocated memory on the heap, as reported by
+ * {@link com.sun.management.ThreadMXBean#getCurrentThreadAllocatedBytes()}.
+ *
+ * Ticks that end the game or restart it are not steady state (the game loop parks on game over)
+ * and are excluded, rendering the game over screen switches fonts which allocates inside Java2D.
+ */
+class AllocationTest
+{
+    private static final int WARMUP_TICKS = 50_000;
+    private static final int TICKS = 10_000;
+
+    private final Game game = new Game( 20, 20, 0xdeadbeefL );
+    private final GameRenderer renderer = new GameRenderer();
+    private final com.sun.management.ThreadMXBean threadBean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @Test
+    void steadyStateTicksDoNotAllocate()
+    {
+        threadBean.setThreadAllocatedMemoryEnabled( true );
+        game.reset();
+        try ( HeadlessGameLoop loop = new HeadlessGameLoop( 640, 480, 42 ) )
+        {
+            run( loop, WARMUP_TICKS );
+            assertEquals( 0, run( loop, TICKS ), "Bytes allocated by steady-state ticks" );
+        }
+    }
+
+    // returns the number of bytes allocated by ticks during which the game was running
+    private long run(HeadlessGameLoop loop, int ticks)
+    {
+        long allocated = 0;
+        for ( int i = 0; i < ticks; i++ )
+        {
+            final long start = threadBean.getCurrentThreadAllocatedBytes();
+            final boolean restarted = game.isGameOver();
+            if ( restarted ) {
+                game.reset();
+            }
+            loop.tick( game, renderer );
+            final long delta = threadBean.getCurrentThreadAllocatedBytes() - start;
+            if ( ! restarted && ! game.isGameOver() ) {
+                allocated += delta;
+            }
+        }
+        return allocated;
+    }
+}
@@ -0,0 +1,112 @@
+package de.codesourcery.jsnake;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Feeds <code>struct input_event</code> records through a pipe instead of a real device.
+ */
+class EpollEventReaderTest
+{
+    private static final int EV_SYN = 0;
+    private static final int EV_ABS = 3;
+    private static final int SYN_REPORT = 0;
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    @Test
+    void readsEventsAndReportsRemovedDevices() throws Exception
+    {
+        final BlockingQueue<GamepadEventReader.InputEvent> events = new LinkedBlockingQueue<>();
+        final BlockingQueue<Integer> removed = new LinkedBlockingQueue<>();
+
+        final int[] pipe = EpollEventReader.pipe();
+        try ( EpollEventReader reader = new EpollEventReader() )
+        {
+            reader.add( pipe[0] );
+            reader.start( new EpollEventReader.Listener()
+            {
+                @Override
+                public void onEvent(int fd, GamepadEventReader.InputEvent event)
+                {
+                    events.add( event );
+                }
+
+                @Override
+                public void onDeviceRemoved(int fd, IOException cause)
+                {
+                    assertNull( cause );
+                    removed.add( fd );
+                }
+            } );
+
+            write( pipe[1], EV_ABS, GamepadEventReader.AbsCodes.ABS_X.id, 42, EV_SYN, SYN_REPORT, 0 );
+
+            final GamepadEventReader.InputEvent axis = events.poll( TIMEOUT_SECONDS, TimeUnit.SECONDS );
+            assertEquals( GamepadEventReader.EventType.EV_ABS, axis.type() );
+            assertEquals( GamepadEventReader.AbsCodes.ABS_X, axis.code() );
+            assertEquals( 42L, axis.value() );
+            assertEquals( GamepadEventReader.EventType.EV_SYN, events.poll( TIMEOUT_SECONDS, TimeUnit.SECONDS ).type() );
+
+            // closing the write end makes the read end report end-of-file
+            EpollEventReader.close( pipe[1] );
+            assertEquals( Integer.valueOf( pipe[0] ), removed.poll( TIMEOUT_SECONDS, TimeUnit.SECONDS ) );
+        }
+    }
+
+    @Test
+    void gamepadReaderCoalescesAxesReadThroughEpoll() throws Exception
+    {
+        final BlockingQueue<GamepadEventReader.ButtonAction> actions = new LinkedBlockingQueue<>();
+
+        final int[] pipe = EpollEventReader.pipe();
+        final EpollEventReader source = new EpollEventReader();
+        source.add( pipe[0] );
+        // closing the reader also closes the EpollEventReader and stops both threads
+        try ( GamepadEventReader ignored = GamepadEventReader.registerListener( actions::add, GamepadEventReader.AnalogConfig.DEFAULT, new GamepadEventReader( source, 16 ) ) )
+        {
+
+            // stick moved to the left and on to the right within one report, only the final position counts
+            write( pipe[1],
+                EV_ABS, GamepadEventReader.AbsCodes.ABS_X.id, 0,
+                EV_ABS, GamepadEventReader.AbsCodes.ABS_X.id, 255,
+                EV_SYN, SYN_REPORT, 0 );
+            assertEquals( GamepadEventReader.ButtonPress.of( GamepadEventReader.Button.RIGHT ), actions.poll( TIMEOUT_SECONDS, TimeUnit.SECONDS ) );
+
+            write( pipe[1], EV_ABS, GamepadEventReader.AbsCodes.ABS_HAT0Y.id, -1, EV_SYN, SYN_REPORT, 0 );
+            assertEquals( GamepadEventReader.ButtonPress.of( GamepadEventReader.Button.UP ), actions.poll( TIMEOUT_SECONDS, TimeUnit.SECONDS ) );
+        }
+        finally
+        {
+            EpollEventReader.close( pipe[1] );
+        }
+    }
+
+    // writes (type, code, value) triplets as struct input_event records
+    private static void write(int fd, int... typeCodeValue) throws IOException
+    {
+        final int recordSize = 8 + 8 + 2 + 2 + 4;
+        try ( Arena arena = Arena.ofConfined() )
+        {
+            final MemorySegment data = arena.allocate( (long) recordSize * (typeCodeValue.length / 3) );
+            for ( int i = 0, offset = 0; i < typeCodeValue.length; i += 3, offset += recordSize )
+            {
+                data.set( ValueLayout.JAVA_SHORT_UNALIGNED.withOrder( ByteOrder.LITTLE_ENDIAN ), offset + 16, (short) typeCodeValue[i] );
+                data.set( ValueLayout.JAVA_SHORT_UNALIGNED.withOrder( ByteOrder.LITTLE_ENDIAN ), offset + 18, (short) typeCodeValue[i + 1] );
+                data.set( ValueLayout.JAVA_INT_UNALIGNED.withOrder( ByteOrder.LITTLE_ENDIAN ), offset + 20, typeCodeValue[i + 2] );
+            }
+            EpollEventReader.write( fd, data );
+        }
+    }
+}